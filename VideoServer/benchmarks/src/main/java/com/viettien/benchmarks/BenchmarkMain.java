@@ -0,0 +1,24 @@
+package com.nguyenquynh.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Chạy mọi benchmark kèm GC profiler (gc.alloc.rate.norm = số byte cấp phát mỗi thao tác).
+// Tham số dòng lệnh của JMH vẫn dùng được, ví dụ: java -jar benchmarks.jar Reassembly -p order=shuffled
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include("com\\.nguyenquynh\\.benchmarks\\..*");
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,75 @@
+package com.nguyenquynh.benchmarks;
+
+import com.nguyenquynh.PixelConverter;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Chuyển đổi ảnh trên đường nóng: Frame -> BufferedImage ở server (Java2DFrameConverter dùng lại như
+// trong streamFrames, và tạo converter mới mỗi frame để so sánh), BufferedImage -> Frame,
+// và BufferedImage -> BGRA cho PixelBuffer ở client
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    private Frame frame;
+    private BufferedImage image;
+    private Java2DFrameConverter converter;
+    private ByteBuffer bgra;
+
+    @Setup
+    public void setup() {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        frame = SyntheticFrames.frame(size[0], size[1]);
+        image = SyntheticFrames.image(size[0], size[1]);
+        converter = new Java2DFrameConverter();
+        bgra = ByteBuffer.allocateDirect(size[0] * size[1] * 4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.close();
+    }
+
+    @Benchmark
+    public BufferedImage frameToImage() {
+        return converter.convert(frame);
+    }
+
+    @Benchmark
+    public BufferedImage frameToImageNewConverter() {
+        return new Java2DFrameConverter().convert(frame);
+    }
+
+    @Benchmark
+    public Frame imageToFrame() {
+        return converter.convert(image);
+    }
+
+    @Benchmark
+    public ByteBuffer imageToBgra() {
+        PixelConverter.copyToBgra(image, bgra);
+        return bgra;
+    }
+}
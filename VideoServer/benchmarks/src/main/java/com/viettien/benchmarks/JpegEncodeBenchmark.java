@@ -0,0 +1,67 @@
+package com.nguyenquynh.benchmarks;
+
+import com.nguyenquynh.JpegEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Mã hóa JPEG một frame: ImageIO.write tạo writer mới mỗi lần (cách cũ) so với JpegEncoder dùng lại writer,
+// và JpegEncoder thu nhỏ trước khi mã hóa như lớp simulcast 1/2
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JpegEncodeBenchmark {
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    private BufferedImage image;
+    private JpegEncoder encoder;
+
+    @Setup
+    public void setup() {
+        int[] size = SyntheticFrames.parseResolution(resolution);
+        image = SyntheticFrames.image(size[0], size[1]);
+        encoder = new JpegEncoder();
+        ImageIO.setUseCache(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoder.close();
+    }
+
+    @Benchmark
+    public byte[] imageIoWrite() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] jpegEncoder() throws IOException {
+        return encoder.encode(image, JpegEncoder.DEFAULT_QUALITY, 1.0);
+    }
+
+    @Benchmark
+    public byte[] jpegEncoderHalfScale() throws IOException {
+        return encoder.encode(image, 0.7f, 0.5);
+    }
+}
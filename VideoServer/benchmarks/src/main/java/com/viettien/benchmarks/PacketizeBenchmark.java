@@ -0,0 +1,88 @@
+package com.nguyenquynh.benchmarks;
+
+import com.nguyenquynh.PacketPacer;
+import com.nguyenquynh.PacketSender;
+import com.nguyenquynh.StreamProtocol;
+import com.nguyenquynh.UnicastFanout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+// Cắt một frame thành datagram (header, chép payload, parity FEC) trong PacketSender.
+// sendLoopback gửi thật tới một socket trên localhost; packetizeOnly đi qua UnicastFanout không có
+// client nên chỉ đo phần cắt gói, không có system call. Pacer không giới hạn nên không bao giờ ngủ.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketizeBenchmark {
+    // Kích thước JPEG điển hình của frame 720p và 1080p
+    @Param({"60000", "150000"})
+    public int frameBytes;
+
+    @Param({"0", "20"})
+    public int fecOverhead;
+
+    private byte[] frame;
+    private DatagramChannel receiver;
+    private DatagramChannel channel;
+    private UnicastFanout fanout;
+    private PacketSender loopbackSender;
+    private PacketSender packetizer;
+    private PacketPacer pacer;
+    private int frameNumber;
+
+    @Setup
+    public void setup() throws IOException {
+        frame = SyntheticFrames.payload(frameBytes);
+
+        // Có socket nhận để localhost không trả ICMP port unreachable; gói thừa bị kernel bỏ khi đầy buffer
+        receiver = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        channel = DatagramChannel.open();
+        loopbackSender = new PacketSender(channel, (InetSocketAddress) receiver.getLocalAddress());
+        loopbackSender.setFecOverhead(fecOverhead);
+
+        fanout = new UnicastFanout();
+        packetizer = new PacketSender(channel, (InetSocketAddress) receiver.getLocalAddress());
+        packetizer.setFanout(fanout, 0);
+        packetizer.setFecOverhead(fecOverhead);
+
+        pacer = new PacketPacer(0, 0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fanout.close();
+        channel.close();
+        receiver.close();
+    }
+
+    @Benchmark
+    public long sendLoopback() throws IOException, InterruptedException {
+        loopbackSender.send(frame, frame.length, frameNumber++, StreamProtocol.PAYLOAD_JPEG, pacer);
+        return loopbackSender.getPacketsSent();
+    }
+
+    @Benchmark
+    public long packetizeOnly() throws IOException, InterruptedException {
+        packetizer.send(frame, frame.length, frameNumber++, StreamProtocol.PAYLOAD_JPEG, pacer);
+        return packetizer.getPacketsSent();
+    }
+}
@@ -0,0 +1,129 @@
+package com.nguyenquynh.benchmarks;
+
+import com.nguyenquynh.FecCodec;
+import com.nguyenquynh.FrameAssembly;
+import com.nguyenquynh.FrameSlotPool;
+import com.nguyenquynh.JitterBuffer;
+import com.nguyenquynh.StreamProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Ghép frame phía client như VideoClient.processPacket + deliverFrames: đọc header, đưa vào JitterBuffer,
+// lấy frame hoàn tất theo thứ tự rồi trả slot về pool. Datagram dựng sẵn giống hệt PacketSender gửi.
+// order: inOrder, shuffled (đảo thứ tự trong frame), fecRecovery (mất một gói mỗi block, khôi phục từ parity)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReassemblyBenchmark {
+    private static final int FEC_OVERHEAD = 20;
+    private static final long PLAYOUT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Param({"60000", "150000"})
+    public int frameBytes;
+
+    @Param({"inOrder", "shuffled", "fecRecovery"})
+    public String order;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    private byte[][] datagrams;
+    private JitterBuffer jitterBuffer;
+    private int frameNumber;
+
+    @Setup
+    public void setup() {
+        FrameSlotPool slotPool = new FrameSlotPool(8, direct);
+        jitterBuffer = new JitterBuffer(8, PLAYOUT_DELAY_NANOS, slotPool);
+
+        List<byte[]> packets = buildDatagrams(SyntheticFrames.payload(frameBytes), "fecRecovery".equals(order));
+        if ("shuffled".equals(order)) {
+            Collections.shuffle(packets, new Random(7));
+        }
+        datagrams = packets.toArray(new byte[0][]);
+    }
+
+    @Benchmark
+    public void reassemble(Blackhole blackhole) {
+        int current = frameNumber++;
+        for (byte[] datagram : datagrams) {
+            // Số frame trong header tăng dần như luồng thật, nếu không jitter buffer coi gói là trễ
+            ByteBuffer.wrap(datagram).putInt(0, current);
+            processPacket(datagram, datagram.length);
+        }
+
+        FrameAssembly assembly;
+        while ((assembly = jitterBuffer.poll(System.nanoTime())) != null) {
+            blackhole.consume(assembly.frameView());
+            jitterBuffer.release(assembly);
+        }
+    }
+
+    private void processPacket(byte[] data, int length) {
+        ByteBuffer headerBuffer = ByteBuffer.wrap(data, 0, StreamProtocol.HEADER_SIZE);
+        int frameNumber = headerBuffer.getInt();
+        int packetNumber = headerBuffer.getInt();
+        int totalPackets = headerBuffer.getInt();
+        int flags = headerBuffer.getInt();
+
+        jitterBuffer.offer(frameNumber, packetNumber, totalPackets, flags, data,
+                StreamProtocol.HEADER_SIZE, length - StreamProtocol.HEADER_SIZE);
+    }
+
+    // Cắt frame theo đúng cách của PacketSender.send; lossy thì có parity và bỏ gói đầu của mỗi block
+    private static List<byte[]> buildDatagrams(byte[] frame, boolean lossy) {
+        int numPackets = StreamProtocol.packetCount(frame.length);
+        int blockSize = lossy ? FecCodec.blockSize(FEC_OVERHEAD) : 0;
+        int flags = StreamProtocol.PAYLOAD_JPEG | StreamProtocol.FLAG_KEYFRAME;
+        byte[] parity = new byte[StreamProtocol.PARITY_PAYLOAD_SIZE];
+
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < numPackets; i++) {
+            int start = i * StreamProtocol.PACKET_SIZE;
+            int length = Math.min(StreamProtocol.PACKET_SIZE, frame.length - start);
+
+            if (blockSize > 0) {
+                if (i % blockSize == 0) {
+                    FecCodec.clear(parity);
+                }
+                FecCodec.accumulate(parity, frame, start, length);
+            }
+            if (blockSize == 0 || i % blockSize != 0) {
+                packets.add(datagram(0, i, numPackets, flags, frame, start, length));
+            }
+            if (blockSize > 0 && (i % blockSize == blockSize - 1 || i == numPackets - 1)) {
+                packets.add(datagram(0, i / blockSize, numPackets, StreamProtocol.parityFlags(flags, blockSize),
+                        parity, 0, parity.length));
+            }
+        }
+        return packets;
+    }
+
+    private static byte[] datagram(int frameNumber, int index, int numPackets, int flags,
+                                   byte[] data, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(StreamProtocol.HEADER_SIZE + length);
+        StreamProtocol.writeHeader(buffer, frameNumber, index, numPackets, flags);
+        buffer.put(data, offset, length);
+        return buffer.array();
+    }
+}
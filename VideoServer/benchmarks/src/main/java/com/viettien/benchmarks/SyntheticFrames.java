@@ -0,0 +1,58 @@
+package com.nguyenquynh.benchmarks;
+
+import org.bytedeco.javacv.Frame;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Frame tổng hợp cho benchmark: gradient cộng nhiễu để JPEG có độ phức tạp gần với video thật.
+// Sinh từ seed cố định nên mọi lần chạy đo trên cùng dữ liệu, không cần file video.
+final class SyntheticFrames {
+    private static final long SEED = 42;
+
+    private SyntheticFrames() {
+    }
+
+    // "1280x720" -> {1280, 720}
+    static int[] parseResolution(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    static BufferedImage image(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(SEED);
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                bgr[i++] = (byte) (x * 255 / width + noise);
+                bgr[i++] = (byte) (y * 255 / height + noise);
+                bgr[i++] = (byte) ((x + y) * 255 / (width + height) + noise);
+            }
+        }
+        return image;
+    }
+
+    // Frame BGR 8 bit như FFmpegFrameGrabber trả về, cùng nội dung với image()
+    static Frame frame(int width, int height) {
+        byte[] bgr = ((DataBufferByte) image(width, height).getRaster().getDataBuffer()).getData();
+        Frame frame = new Frame(width, height, Frame.DEPTH_UBYTE, 3);
+        ByteBuffer pixels = (ByteBuffer) frame.image[0];
+        for (int y = 0; y < height; y++) {
+            pixels.position(y * frame.imageStride);
+            pixels.put(bgr, y * width * 3, width * 3);
+        }
+        pixels.rewind();
+        return frame;
+    }
+
+    static byte[] payload(int length) {
+        byte[] data = new byte[length];
+        new Random(SEED).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,70 @@
+package com.nguyenquynh;
+
+import org.bytedeco.ffmpeg.avcodec.AVBSFContext;
+import org.bytedeco.ffmpeg.avcodec.AVBitStreamFilter;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.global.avcodec;
+import java.io.IOException;
+
+// Chuyển packet H.264 dạng AVCC (mp4/mkv) sang Annex B để client giải mã được
+// từng access unit mà không cần extradata của container
+public class AnnexBFilter implements AutoCloseable {
+    private final AVBSFContext context;
+    private final AVPacket input;
+    private final AVPacket output;
+    private byte[] buffer = new byte[64 * 1024];
+
+    public interface Sink {
+        void accept(byte[] data, int length, boolean keyFrame) throws IOException, InterruptedException;
+    }
+
+    public AnnexBFilter(AVStream stream) throws IOException {
+        AVBitStreamFilter filter = avcodec.av_bsf_get_by_name("h264_mp4toannexb");
+        if (filter == null) {
+            throw new IOException("FFmpeg không hỗ trợ bộ lọc h264_mp4toannexb");
+        }
+
+        context = new AVBSFContext(null);
+        check(avcodec.av_bsf_alloc(filter, context), "Không thể tạo bộ lọc Annex B");
+        check(avcodec.avcodec_parameters_copy(context.par_in(), stream.codecpar()), "Không thể sao chép tham số codec");
+        context.time_base_in(stream.time_base());
+        check(avcodec.av_bsf_init(context), "Không thể khởi tạo bộ lọc Annex B");
+
+        input = avcodec.av_packet_alloc();
+        output = avcodec.av_packet_alloc();
+    }
+
+    public void filter(AVPacket packet, Sink sink) throws IOException, InterruptedException {
+        // Tham chiếu thêm để không lấy mất dữ liệu của grabber
+        check(avcodec.av_packet_ref(input, packet), "Không thể tham chiếu packet");
+        check(avcodec.av_bsf_send_packet(context, input), "Lỗi gửi packet vào bộ lọc");
+
+        while (avcodec.av_bsf_receive_packet(context, output) == 0) {
+            try {
+                int size = output.size();
+                if (buffer.length < size) {
+                    buffer = new byte[size];
+                }
+                output.data().position(0).get(buffer, 0, size);
+                boolean keyFrame = (output.flags() & avcodec.AV_PKT_FLAG_KEY) != 0;
+                sink.accept(buffer, size, keyFrame);
+            } finally {
+                avcodec.av_packet_unref(output);
+            }
+        }
+    }
+
+    private static void check(int result, String message) throws IOException {
+        if (result < 0) {
+            throw new IOException(message + " (mã lỗi " + result + ")");
+        }
+    }
+
+    @Override
+    public void close() {
+        avcodec.av_packet_free(input);
+        avcodec.av_packet_free(output);
+        avcodec.av_bsf_free(context);
+    }
+}
@@ -0,0 +1,149 @@
+package com.nguyenquynh;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Chạy nhiều kênh không giao diện trong một tiến trình. Mọi luồng của các kênh là virtual thread
+// trên bộ lập lịch chung nên số luồng hệ điều hành chỉ bằng số nhân CPU, không tăng theo số kênh.
+// Kênh thứ i phát trên nhóm 239.255.1.(i+1), cổng basePort + i*100 (điều khiển +1, trạng thái +2).
+public class ChannelManager {
+    private static final int PORT_STRIDE = 100;
+    private static final String GROUP_PREFIX = "239.255.1.";
+    private static final int MAX_CHANNELS = 254;
+    private static final int DEFAULT_ENCODER_THREADS = 2;
+    private static final long STATS_INTERVAL_SECONDS = 5;
+
+    private static final class Channel {
+        final VideoServer server;
+        long lastBusyNanos;
+        long lastBytesSent;
+
+        Channel(VideoServer server) {
+            this.server = server;
+        }
+    }
+
+    private final String serverIp;
+    private final int basePort;
+    private final ThreadFactory threadFactory = Thread.ofVirtual().name("channel-", 0).factory();
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService statsTimer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    private int encoderThreads = DEFAULT_ENCODER_THREADS;
+    private boolean liveClock = false;
+    private long lastStatsNanos;
+
+    public ChannelManager(String serverIp, int basePort) {
+        this.serverIp = serverIp;
+        this.basePort = basePort;
+    }
+
+    // Số luồng mã hóa JPEG của mỗi kênh; phải gọi trước addChannel()
+    public void setEncoderThreads(int encoderThreads) {
+        this.encoderThreads = Math.max(1, encoderThreads);
+    }
+
+    // Kênh "trực tiếp": khi không có người xem vị trí phát vẫn chạy theo đồng hồ thực; phải gọi trước addChannel()
+    public void setLiveClock(boolean liveClock) {
+        this.liveClock = liveClock;
+    }
+
+    public VideoServer addChannel(String name, String videoPath) {
+        return addChannel(name, List.of(videoPath));
+    }
+
+    // Kênh phát lần lượt các file của playlist
+    public synchronized VideoServer addChannel(String name, List<String> playlist) {
+        int index = channels.size();
+        if (index >= MAX_CHANNELS) {
+            throw new IllegalStateException("Vượt quá số kênh tối đa: " + MAX_CHANNELS);
+        }
+        int port = basePort + index * PORT_STRIDE;
+
+        VideoServer server = new VideoServer(playlist, serverIp, port, false, true);
+        server.setChannelName(name);
+        server.setLayers(StreamLayer.single(GROUP_PREFIX + (index + 1), port));
+        server.setEncoderThreads(encoderThreads);
+        server.setThreadFactory(threadFactory);
+        // Kênh không có người xem thì không giải mã/mã hóa
+        server.setIdleWhenUnwatched(true);
+        server.setLiveClock(liveClock);
+        server.setDirectory(this::directory);
+        channels.add(new Channel(server));
+        return server;
+    }
+
+    public void start() {
+        for (Channel channel : channels) {
+            channel.server.streamVideo();
+        }
+        lastStatsNanos = System.nanoTime();
+        statsTimer.scheduleAtFixedRate(this::printStats, STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        statsTimer.shutdownNow();
+        for (Channel channel : channels) {
+            channel.server.stopServer();
+        }
+    }
+
+    // Danh bạ kênh gửi cho client qua lệnh CHANNELS trên cổng điều khiển của bất kỳ kênh nào
+    public String directory() {
+        StringBuilder sb = new StringBuilder();
+        for (Channel channel : channels) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append(channel.server.describeChannel());
+        }
+        return sb.toString();
+    }
+
+    // Thời gian bận (wall time) của giải mã/mã hóa trên mỗi giây thực, không phải thời gian CPU: gồm cả lúc
+    // luồng bị hệ điều hành tạm dừng, và ThreadMXBean không đo được CPU của virtual thread
+    private void printStats() {
+        long now = System.nanoTime();
+        double seconds = (now - lastStatsNanos) / 1_000_000_000.0;
+        lastStatsNanos = now;
+
+        for (Channel channel : channels) {
+            long busy = channel.server.getBusyNanos();
+            long bytes = channel.server.getBytesSent();
+            System.out.printf("[%s] bận %.1f%% | %.2f Mbit/s | %s%n", channel.server.getChannelName(),
+                    (busy - channel.lastBusyNanos) / 1e9 / seconds * 100,
+                    (bytes - channel.lastBytesSent) * 8 / 1e6 / seconds,
+                    channel.server.getStatus());
+            channel.lastBusyNanos = busy;
+            channel.lastBytesSent = bytes;
+        }
+    }
+
+    // Cách dùng: ChannelManager <ip server> <port gốc> <video 1> [video 2 ...]
+    // Một kênh có thể là playlist: các file nối bằng dấu phân cách đường dẫn (":" trên Linux, ";" trên Windows)
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Cách dùng: ChannelManager <ip server> <port gốc> <video 1>[" + File.pathSeparator
+                    + "video 1b ...] [video 2 ...]");
+            System.exit(1);
+        }
+
+        ChannelManager manager = new ChannelManager(args[0], Integer.parseInt(args[1]));
+        for (int i = 2; i < args.length; i++) {
+            List<String> playlist = List.of(args[i].split(File.pathSeparator));
+            VideoServer server = manager.addChannel(new File(playlist.get(0)).getName(), playlist);
+            System.out.println("Kênh " + server.describeChannel());
+        }
+
+        CountDownLatch shutdown = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            manager.stop();
+            shutdown.countDown();
+        }));
+        manager.start();
+        shutdown.await();
+    }
+}
@@ -0,0 +1,81 @@
+package com.nguyenquynh;
+
+import java.net.InetAddress;
+
+// Phiên của một client trên server: thời điểm tham gia, lần cuối nhận tin điều khiển,
+// báo cáo gần nhất và mất gói trung bình. Được cập nhật từ luồng điều khiển, đọc từ mọi luồng.
+public class ClientSession {
+    private final InetAddress address;
+    private final long joinedAtMillis;
+    private volatile long lastSeenNanos;
+    private volatile int controlPort;
+    private volatile int layerId;
+    private volatile QualityController.Report lastReport;
+    private volatile long lastReportMillis;
+    private long reportCount;
+    private double totalLoss;
+
+    ClientSession(InetAddress address, int controlPort) {
+        this.address = address;
+        this.controlPort = controlPort;
+        this.joinedAtMillis = System.currentTimeMillis();
+        this.lastSeenNanos = System.nanoTime();
+    }
+
+    void touch() {
+        lastSeenNanos = System.nanoTime();
+    }
+
+    void setControlPort(int controlPort) {
+        this.controlPort = controlPort;
+    }
+
+    public void setLayerId(int layerId) {
+        this.layerId = layerId;
+    }
+
+    public synchronized void recordReport(QualityController.Report report) {
+        lastReport = report;
+        lastReportMillis = System.currentTimeMillis();
+        reportCount++;
+        totalLoss += report.lossPercent;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public long getJoinedAtMillis() {
+        return joinedAtMillis;
+    }
+
+    public long getLastSeenNanos() {
+        return lastSeenNanos;
+    }
+
+    // Cổng của socket điều khiển phía client, dùng để trả lời trực tiếp
+    public int getControlPort() {
+        return controlPort;
+    }
+
+    public int getLayerId() {
+        return layerId;
+    }
+
+    public QualityController.Report getLastReport() {
+        return lastReport;
+    }
+
+    public long getLastReportMillis() {
+        return lastReportMillis;
+    }
+
+    public double getLastLossPercent() {
+        QualityController.Report report = lastReport;
+        return report != null ? report.lossPercent : 0;
+    }
+
+    public synchronized double getAverageLossPercent() {
+        return reportCount > 0 ? totalLoss / reportCount : 0;
+    }
+}
@@ -0,0 +1,353 @@
+package com.nguyenquynh;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Nhóm luồng giải mã phía client. Frame JPEG được giải mã song song; bước sắp xếp chỉ cho
+// frame mới hơn frame đã hiển thị đi tiếp, frame lỗi thời bị bỏ thay vì phải chờ.
+// Frame H.264 phụ thuộc nhau nên đi qua một luồng giải mã tuần tự riêng; frame của chế độ delta (frame đầy đủ
+// và frame ô) cũng vậy, các ô được ghép vào framebuffer giữ trên luồng đó.
+public class DecodePool {
+    // Lùi quá xa thì coi như server khởi động lại (cùng ngưỡng với JitterBuffer)
+    private static final int RESET_DISTANCE = 1000;
+    // Khoảng cách tối thiểu giữa hai lần xin frame đầy đủ khi mất frame ô
+    private static final long REFRESH_REQUEST_INTERVAL_NANOS = 500_000_000L;
+
+    private final FrameMailbox mailbox;
+    private final Consumer<FrameAssembly> recycler;
+    private final BlockingQueue<FrameAssembly> jpegQueue;
+    private final BlockingQueue<FrameAssembly> h264Queue;
+    private final BlockingQueue<FrameAssembly> tileQueue;
+    private final Thread[] jpegWorkers;
+    private final Thread h264Worker;
+    private final Thread tileWorker;
+    private Runnable refreshRequester;
+    private long lastRefreshRequest = System.nanoTime() - REFRESH_REQUEST_INTERVAL_NANOS;
+    private volatile boolean running;
+
+    private long lastPublished = -1;
+
+    private final AtomicLong decodedFrames = new AtomicLong();
+    private final AtomicLong staleFrames = new AtomicLong();
+    private final AtomicLong overflowFrames = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicLong tileFrames = new AtomicLong();
+    private final AtomicLong keepAliveFrames = new AtomicLong();
+    private Histogram decodeTime;
+
+    public DecodePool(int threads, FrameMailbox mailbox, Consumer<FrameAssembly> recycler) {
+        int workers = Math.max(1, threads);
+        this.mailbox = mailbox;
+        this.recycler = recycler;
+        this.jpegQueue = new ArrayBlockingQueue<>(workers * 2);
+        this.h264Queue = new ArrayBlockingQueue<>(32);
+        this.tileQueue = new ArrayBlockingQueue<>(32);
+        this.jpegWorkers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            jpegWorkers[i] = new Thread(this::jpegLoop, "jpeg-decoder-" + i);
+            jpegWorkers[i].setDaemon(true);
+        }
+        this.h264Worker = new Thread(this::h264Loop, "h264-decoder");
+        this.h264Worker.setDaemon(true);
+        this.tileWorker = new Thread(this::tileLoop, "tile-decoder");
+        this.tileWorker.setDaemon(true);
+    }
+
+    public static int defaultThreads() {
+        // Chừa một nhân cho luồng nhận gói
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    public void start() {
+        running = true;
+        for (Thread worker : jpegWorkers) {
+            worker.start();
+        }
+        h264Worker.start();
+        tileWorker.start();
+    }
+
+    public void stop() {
+        running = false;
+        for (Thread worker : jpegWorkers) {
+            worker.interrupt();
+        }
+        h264Worker.interrupt();
+        tileWorker.interrupt();
+        // Chờ các luồng cũ dừng hẳn để lần khởi động sau không tranh mailbox với chúng
+        try {
+            for (Thread worker : jpegWorkers) {
+                worker.join();
+            }
+            h264Worker.join();
+            tileWorker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Gọi từ luồng nhận, không bao giờ chặn: hàng đợi đầy thì bỏ frame cũ nhất
+    public void submit(FrameAssembly assembly) {
+        int flags = assembly.getFlags();
+        BlockingQueue<FrameAssembly> queue;
+        if (StreamProtocol.payloadType(flags) == StreamProtocol.PAYLOAD_H264) {
+            queue = h264Queue;
+        } else if (StreamProtocol.payloadType(flags) == StreamProtocol.PAYLOAD_TILES || StreamProtocol.isKeyframe(flags)) {
+            queue = tileQueue;
+        } else {
+            queue = jpegQueue;
+        }
+        while (!queue.offer(assembly)) {
+            FrameAssembly oldest = queue.poll();
+            if (oldest != null) {
+                recycler.accept(oldest);
+                overflowFrames.incrementAndGet();
+            }
+        }
+    }
+
+    private void jpegLoop() {
+        try (JpegDecoder decoder = new JpegDecoder()) {
+            while (running) {
+                FrameAssembly assembly = jpegQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (assembly == null) continue;
+
+                int frameNumber = assembly.getFrameNumber();
+                long start = System.nanoTime();
+                try {
+                    if (isStale(frameNumber)) {
+                        staleFrames.incrementAndGet();
+                        continue;
+                    }
+                    FrameMailbox.Surface surface = decoder.decode(assembly.frameView(), mailbox);
+                    recordDecode(System.nanoTime() - start);
+                    publish(surface, frameNumber);
+                } catch (IOException | RuntimeException e) {
+                    // ImageIO có thể ném RuntimeException với JPEG hỏng; bỏ frame nhưng luồng giải mã phải sống
+                    System.err.println("Lỗi giải mã frame " + frameNumber + ": " + e.getMessage());
+                } finally {
+                    recycler.accept(assembly);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void h264Loop() {
+        H264Decoder decoder = null;
+        int lastFrame = -1;
+        boolean waitingForKeyframe = true;
+        try {
+            while (running) {
+                FrameAssembly assembly = h264Queue.poll(100, TimeUnit.MILLISECONDS);
+                if (assembly == null) continue;
+
+                try {
+                    if (decoder == null) {
+                        decoder = new H264Decoder();
+                    }
+
+                    // H.264 phải giải mã đúng thứ tự; mất frame thì đợi keyframe tiếp theo
+                    int frameNumber = assembly.getFrameNumber();
+                    if (frameNumber <= lastFrame && frameNumber > lastFrame - RESET_DISTANCE) {
+                        continue;
+                    }
+                    if (frameNumber != lastFrame + 1) {
+                        waitingForKeyframe = true;
+                    }
+                    lastFrame = frameNumber;
+
+                    if (waitingForKeyframe) {
+                        if (!StreamProtocol.isKeyframe(assembly.getFlags())) {
+                            continue;
+                        }
+                        decoder.flush();
+                        waitingForKeyframe = false;
+                    }
+
+                    long start = System.nanoTime();
+                    ByteBuffer frameData = assembly.frameView();
+                    FrameMailbox.Surface surface = decoder.decode(frameData, mailbox);
+                    recordDecode(System.nanoTime() - start);
+                    if (surface != null) {
+                        publish(surface, frameNumber);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Lỗi khởi tạo bộ giải mã H.264: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    // Trạng thái bộ giải mã không còn tin được, đợi keyframe tiếp theo
+                    System.err.println("Lỗi giải mã frame " + assembly.getFrameNumber() + ": " + e.getMessage());
+                    waitingForKeyframe = true;
+                } finally {
+                    recycler.accept(assembly);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (decoder != null) {
+                decoder.close();
+            }
+        }
+    }
+
+    // Chế độ delta: frame đầy đủ (JPEG có cờ keyframe) thay framebuffer, frame ô ghép vào framebuffer. Như H.264,
+    // phải đi đúng thứ tự; mất frame hoặc đổi kích thước thì bỏ frame ô tới frame đầy đủ kế tiếp
+    private void tileLoop() {
+        BufferedImage framebuffer = null;
+        int lastFrame = -1;
+        boolean waitingForKeyframe = true;
+        try (JpegDecoder decoder = new JpegDecoder()) {
+            while (running) {
+                FrameAssembly assembly = tileQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (assembly == null) continue;
+
+                int frameNumber = assembly.getFrameNumber();
+                try {
+                    if (frameNumber <= lastFrame && frameNumber > lastFrame - RESET_DISTANCE) {
+                        continue;
+                    }
+                    if (frameNumber != lastFrame + 1) {
+                        waitingForKeyframe = true;
+                    }
+                    lastFrame = frameNumber;
+
+                    long start = System.nanoTime();
+                    ByteBuffer frameData = assembly.frameView();
+                    if (StreamProtocol.isKeyframe(assembly.getFlags())) {
+                        framebuffer = toBgr(decoder.read(frameData), framebuffer);
+                        waitingForKeyframe = false;
+                    } else {
+                        int tiles = waitingForKeyframe ? -1 : TileDelta.composite(frameData, framebuffer, decoder);
+                        if (tiles < 0) {
+                            waitingForKeyframe = true;
+                            requestRefresh();
+                            continue;
+                        }
+                        if (tiles == 0) {
+                            // Keep-alive: ảnh không đổi, không cần vẽ lại
+                            keepAliveFrames.incrementAndGet();
+                            continue;
+                        }
+                        tileFrames.incrementAndGet();
+                    }
+
+                    FrameMailbox.Surface surface = mailbox.acquire(framebuffer.getWidth(), framebuffer.getHeight());
+                    PixelConverter.copyToBgra(framebuffer, surface.getPixels());
+                    recordDecode(System.nanoTime() - start);
+                    publish(surface, frameNumber);
+                } catch (IOException | RuntimeException e) {
+                    // Payload hỏng: framebuffer không còn tin được, xin frame đầy đủ
+                    System.err.println("Lỗi giải mã frame " + frameNumber + ": " + e.getMessage());
+                    waitingForKeyframe = true;
+                    requestRefresh();
+                } finally {
+                    recycler.accept(assembly);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Chỉ gọi từ luồng ghép ô; gửi REFRESH tối đa mỗi REFRESH_REQUEST_INTERVAL_NANOS
+    private void requestRefresh() {
+        long now = System.nanoTime();
+        if (refreshRequester != null && now - lastRefreshRequest >= REFRESH_REQUEST_INTERVAL_NANOS) {
+            lastRefreshRequest = now;
+            refreshRequester.run();
+        }
+    }
+
+    // Framebuffer phải là BGR 3 byte để ghép ô bằng raster và chép nhanh sang surface. Ảnh giải mã được chép sang
+    // framebuffer (dùng lại nếu cùng kích thước) vì JpegDecoder dùng lại ảnh đó làm đích cho atlas kế tiếp
+    private static BufferedImage toBgr(BufferedImage image, BufferedImage reuse) {
+        BufferedImage framebuffer = reuse;
+        if (framebuffer == null || framebuffer.getWidth() != image.getWidth() || framebuffer.getHeight() != image.getHeight()) {
+            framebuffer = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        }
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            byte[] source = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            byte[] target = ((DataBufferByte) framebuffer.getRaster().getDataBuffer()).getData();
+            System.arraycopy(source, 0, target, 0, target.length);
+        } else {
+            Graphics graphics = framebuffer.getGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+        }
+        return framebuffer;
+    }
+
+    // Gọi khi mất frame ô, để xin server gửi frame đầy đủ (lệnh REFRESH); phải gọi trước start()
+    public void setRefreshRequester(Runnable refreshRequester) {
+        this.refreshRequester = refreshRequester;
+    }
+
+    // Histogram thời gian giải mã một frame (ns); phải gọi trước start()
+    public void setDecodeHistogram(Histogram decodeTime) {
+        this.decodeTime = decodeTime;
+    }
+
+    private void recordDecode(long nanos) {
+        decodeNanos.addAndGet(nanos);
+        if (decodeTime != null) {
+            decodeTime.record(nanos);
+        }
+    }
+
+    private synchronized boolean isStale(long frameNumber) {
+        return frameNumber <= lastPublished && frameNumber > lastPublished - RESET_DISTANCE;
+    }
+
+    // Bước sắp xếp: chỉ frame mới hơn frame đã đưa ra mới được hiển thị
+    private synchronized void publish(FrameMailbox.Surface surface, long frameNumber) {
+        if (isStale(frameNumber)) {
+            mailbox.discard(surface);
+            staleFrames.incrementAndGet();
+            return;
+        }
+        lastPublished = frameNumber;
+        mailbox.publish(surface, frameNumber);
+        decodedFrames.incrementAndGet();
+    }
+
+    public long getDecodedFrames() {
+        return decodedFrames.get();
+    }
+
+    public long getStaleFrames() {
+        return staleFrames.get();
+    }
+
+    // Chế độ delta: số frame ô đã ghép và số frame keep-alive
+    public long getTileFrames() {
+        return tileFrames.get();
+    }
+
+    public long getKeepAliveFrames() {
+        return keepAliveFrames.get();
+    }
+
+    public long getOverflowFrames() {
+        return overflowFrames.get();
+    }
+
+    public long getTotalDecodeNanos() {
+        return decodeNanos.get();
+    }
+
+    // Thời gian giải mã trung bình (ms)
+    public double getAverageDecodeMillis() {
+        long frames = decodedFrames.get();
+        return frames == 0 ? 0 : decodeNanos.get() / 1_000_000.0 / frames;
+    }
+}
@@ -0,0 +1,37 @@
+package com.nguyenquynh;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Pool các direct buffer kích thước cố định, dùng lại cho từng datagram để không cấp phát khi gửi
+public class DirectBufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> free;
+
+    public DirectBufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.offer(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            // Pool cạn (nhiều luồng gửi cùng lúc) thì cấp thêm, buffer này sẽ được giữ lại nếu còn chỗ
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        free.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,476 @@
+package com.nguyenquynh;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Pipeline nhiều luồng: luồng giải mã -> nhóm luồng mã hóa JPEG -> sắp xếp lại theo frameNumber -> luồng gửi.
+// Ở chế độ delta, luồng giải mã so các ô với frame trước (TileDelta) và luồng mã hóa chỉ mã hóa các ô đã đổi.
+public class EncodePipeline {
+    public enum DropPolicy {
+        BLOCK,       // Chờ khi hàng đợi đầy (không mất frame, có thể chậm)
+        DROP_NEWEST, // Bỏ frame mới khi hàng đợi đầy
+        DROP_OLDEST  // Bỏ frame cũ nhất để nhường chỗ cho frame mới
+    }
+
+    public interface FrameSink {
+        void send(byte[] data, int length, int frameNumber, int flags) throws IOException, InterruptedException;
+    }
+
+    // Chất lượng và tỉ lệ thu nhỏ đọc lại cho từng frame (điều chỉnh tự động hoặc cố định theo lớp)
+    public interface EncodeSettings {
+        float getQuality();
+
+        double getScale();
+    }
+
+    private static final class RawFrame {
+        final int frameNumber;
+        final BufferedImage image;
+        // Chế độ delta: chỉ số các ô cần gửi, null nếu gửi cả frame
+        final int[] tiles;
+
+        RawFrame(int frameNumber, BufferedImage image, int[] tiles) {
+            this.frameNumber = frameNumber;
+            this.image = image;
+            this.tiles = tiles;
+        }
+    }
+
+    private static final class EncodedFrame {
+        final int frameNumber;
+        final byte[] data;
+        final int flags;
+
+        EncodedFrame(int frameNumber, byte[] data, int flags) {
+            this.frameNumber = frameNumber;
+            this.data = data;
+            this.flags = flags;
+        }
+    }
+
+    // Đánh dấu frame đã bị bỏ để bước sắp xếp không phải chờ
+    private static final EncodedFrame SKIPPED = new EncodedFrame(-1, null, 0);
+
+    private final int encoderThreads;
+    private final DropPolicy dropPolicy;
+    private final FrameSink sink;
+    private final EncodeSettings settings;
+    private final BlockingQueue<RawFrame> encodeQueue;
+    private final BlockingQueue<EncodedFrame> sendQueue;
+    private final BlockingQueue<BufferedImage> imagePool;
+    private final Map<Integer, EncodedFrame> reorderBuffer = new HashMap<>();
+    // Lượt đẩy sang luồng gửi: giữ đúng thứ tự frame mà không phải giữ khóa sắp xếp trong lúc chờ hàng đợi gửi
+    private final ReentrantLock sendOrder = new ReentrantLock();
+    private final Thread[] workers;
+    private Thread senderThread;
+    private ThreadFactory threadFactory;
+    private Histogram encodeTime;
+    private Histogram frameBytes;
+    private volatile boolean running;
+    // Chế độ delta (null nếu tắt): frame đầy đủ gửi định kỳ sau refreshInterval frame ô, hoặc ngay khi được yêu cầu
+    private TileDelta tileDelta;
+    private int refreshInterval;
+    private int framesSinceRefresh;
+    private volatile boolean refreshRequested;
+
+    private int nextFrameNumber = 0;
+    private int nextToSend = 0;
+
+    private final AtomicLong sentFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong tileFrames = new AtomicLong();
+    private final AtomicLong keepAliveFrames = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    // Kích thước frame đầy đủ gần nhất, dùng ước lượng số byte frame ô đã tiết kiệm
+    private final AtomicLong fullFrameBytes = new AtomicLong();
+
+    public EncodePipeline(int encoderThreads, int queueCapacity, DropPolicy dropPolicy, FrameSink sink,
+                          EncodeSettings settings) {
+        this.encoderThreads = Math.max(1, encoderThreads);
+        this.dropPolicy = dropPolicy;
+        this.sink = sink;
+        this.settings = settings;
+        this.encodeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.sendQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.imagePool = new ArrayBlockingQueue<>(queueCapacity + this.encoderThreads + 1);
+        this.workers = new Thread[this.encoderThreads];
+    }
+
+    public static int defaultEncoderThreads() {
+        // Chừa một nhân cho luồng giải mã và một nhân cho luồng gửi
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+    }
+
+    // Dùng luồng của bộ lập lịch chung (ví dụ virtual thread của ChannelManager); phải gọi trước start()
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    // Histogram thời gian mã hóa (ns) và kích thước frame (byte); phải gọi trước start()
+    public void setHistograms(Histogram encodeTime, Histogram frameBytes) {
+        this.encodeTime = encodeTime;
+        this.frameBytes = frameBytes;
+    }
+
+    // Số frame đầu tiên, để đánh số tiếp nối khi chuyển qua lại với phát từ PacketCache; phải gọi trước start()
+    public void setFirstFrameNumber(int frameNumber) {
+        this.nextFrameNumber = frameNumber;
+        this.nextToSend = frameNumber;
+    }
+
+    // Bật chế độ delta, frame đầy đủ tối thiểu mỗi refreshInterval frame; phải gọi trước start()
+    public void setDeltaMode(int refreshInterval) {
+        this.tileDelta = new TileDelta();
+        this.refreshInterval = Math.max(1, refreshInterval);
+    }
+
+    // Frame kế tiếp được gửi đầy đủ (client mới vào, client mất frame ô hoặc frame bị bỏ trong pipeline)
+    public void requestRefresh() {
+        refreshRequested = true;
+    }
+
+    public int getNextFrameNumber() {
+        return nextFrameNumber;
+    }
+
+    public void start() {
+        running = true;
+        for (int i = 0; i < encoderThreads; i++) {
+            workers[i] = newThread(this::encodeLoop, "jpeg-encoder-" + i);
+            workers[i].start();
+        }
+        senderThread = newThread(this::sendLoop, "frame-sender");
+        senderThread.start();
+    }
+
+    private Thread newThread(Runnable task, String name) {
+        if (threadFactory != null) {
+            Thread thread = threadFactory.newThread(task);
+            thread.setName(name);
+            return thread;
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    // Dừng và chờ mọi luồng của pipeline kết thúc, để sender có thể được dùng lại ngay
+    public void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+        if (senderThread != null) {
+            senderThread.interrupt();
+        }
+        try {
+            for (Thread worker : workers) {
+                if (worker != null) {
+                    worker.join();
+                }
+            }
+            if (senderThread != null) {
+                senderThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Gọi từ luồng giải mã; ảnh nguồn được sao chép nên converter có thể dùng lại ngay
+    public void submit(BufferedImage source) throws InterruptedException {
+        RawFrame frame = tileDelta != null ? deltaFrame(source) : new RawFrame(nextFrameNumber, copyImage(source), null);
+        if (frame == null) {
+            // Keep-alive đã được chuyển thẳng sang bước sắp xếp
+            nextFrameNumber++;
+            return;
+        }
+
+        switch (dropPolicy) {
+            case BLOCK:
+                encodeQueue.put(frame);
+                break;
+            case DROP_NEWEST:
+                if (!encodeQueue.offer(frame)) {
+                    // Vẫn tiêu số frame để các lớp simulcast giữ chung cách đánh số
+                    releaseImage(frame.image);
+                    onDropped();
+                    complete(frame.frameNumber, SKIPPED);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!encodeQueue.offer(frame)) {
+                    RawFrame oldest = encodeQueue.poll();
+                    if (oldest != null) {
+                        releaseImage(oldest.image);
+                        onDropped();
+                        complete(oldest.frameNumber, SKIPPED);
+                    }
+                }
+                break;
+        }
+        nextFrameNumber++;
+    }
+
+    // Lớp bỏ frame nguồn này (tỉ lệ khung hình) trong khi lớp khác vẫn gửi: vẫn tiêu số frame để các lớp simulcast
+    // giữ chung cách đánh số. Chế độ delta gửi keep-alive để client không thấy hở số frame mà phải chờ frame đầy đủ
+    public void skip() throws InterruptedException {
+        if (tileDelta != null && tileDelta.getWidth() > 0) {
+            byte[] keepAlive = TileDelta.payload(tileDelta.getWidth(), tileDelta.getHeight(), new int[0], null);
+            keepAliveFrames.incrementAndGet();
+            complete(nextFrameNumber, new EncodedFrame(nextFrameNumber, keepAlive, StreamProtocol.PAYLOAD_TILES));
+        } else {
+            complete(nextFrameNumber, SKIPPED);
+        }
+        nextFrameNumber++;
+    }
+
+    // Chế độ delta: thu nhỏ trước khi so ô (ô so trên ảnh đúng kích thước được gửi), rồi chọn gửi cả frame,
+    // chỉ các ô đã đổi, hay keep-alive (trả về null)
+    private RawFrame deltaFrame(BufferedImage source) throws InterruptedException {
+        BufferedImage image = scaledCopy(source, settings.getScale());
+        int[] tiles = tileDelta.diff(image);
+        // Đổi quá nửa số ô thì frame đầy đủ không lớn hơn bao nhiêu mà còn làm mới toàn bộ ảnh
+        boolean refresh = tiles == null || refreshRequested || framesSinceRefresh >= refreshInterval
+                || tiles.length > tileDelta.getTileCount() / 2;
+        if (refresh) {
+            refreshRequested = false;
+            framesSinceRefresh = 0;
+            return new RawFrame(nextFrameNumber, image, null);
+        }
+        framesSinceRefresh++;
+        if (tiles.length == 0) {
+            // Không ô nào đổi: chỉ gửi header để client biết luồng vẫn sống, không qua luồng mã hóa
+            byte[] keepAlive = TileDelta.payload(image.getWidth(), image.getHeight(), tiles, null);
+            releaseImage(image);
+            keepAliveFrames.incrementAndGet();
+            recordSaved(keepAlive.length);
+            complete(nextFrameNumber, new EncodedFrame(nextFrameNumber, keepAlive, StreamProtocol.PAYLOAD_TILES));
+            return null;
+        }
+        return new RawFrame(nextFrameNumber, image, tiles);
+    }
+
+    private BufferedImage scaledCopy(BufferedImage source, double scale) {
+        int width = scale < 0.99 ? JpegEncoder.scaledSize(source.getWidth(), scale) : source.getWidth();
+        int height = scale < 0.99 ? JpegEncoder.scaledSize(source.getHeight(), scale) : source.getHeight();
+        BufferedImage target = imagePool.poll();
+        if (target == null || target.getWidth() != width || target.getHeight() != height
+                || target.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            target = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        }
+        if (width == source.getWidth() && height == source.getHeight()
+                && source.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            target.setData(source.getRaster());
+            return target;
+        }
+
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    // Frame bị bỏ ở chế độ delta làm client lệch ô, frame kế tiếp phải gửi đầy đủ
+    private void onDropped() {
+        droppedFrames.incrementAndGet();
+        if (tileDelta != null) {
+            refreshRequested = true;
+        }
+    }
+
+    private void recordSaved(int sentBytes) {
+        long fullBytes = fullFrameBytes.get();
+        if (fullBytes > sentBytes) {
+            bytesSaved.addAndGet(fullBytes - sentBytes);
+        }
+    }
+
+    public long getSentFrames() {
+        return sentFrames.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    // Số frame chỉ gửi ô đã đổi (không tính keep-alive, giống phía client) và số frame keep-alive
+    public long getTileFrames() {
+        return tileFrames.get();
+    }
+
+    public long getKeepAliveFrames() {
+        return keepAliveFrames.get();
+    }
+
+    // Số byte ước lượng đã tiết kiệm so với gửi frame đầy đủ (theo kích thước frame đầy đủ gần nhất)
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    // Tổng thời gian các luồng mã hóa bận (dùng để ước lượng CPU theo kênh)
+    public long getEncodeNanos() {
+        return encodeNanos.get();
+    }
+
+    private void encodeLoop() {
+        BufferedImage atlas = null;
+        try (JpegEncoder encoder = new JpegEncoder()) {
+            while (running) {
+                RawFrame frame = encodeQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (frame == null) continue;
+
+                EncodedFrame encoded;
+                long start = System.nanoTime();
+                try {
+                    byte[] data;
+                    int flags;
+                    if (frame.tiles != null) {
+                        atlas = TileDelta.atlas(frame.image, frame.tiles, atlas);
+                        data = TileDelta.payload(frame.image.getWidth(), frame.image.getHeight(), frame.tiles,
+                                encoder.encode(atlas, settings.getQuality(), 1.0));
+                        flags = StreamProtocol.PAYLOAD_TILES;
+                        tileFrames.incrementAndGet();
+                        recordSaved(data.length);
+                    } else if (tileDelta != null) {
+                        // Ảnh đã được thu nhỏ ở deltaFrame
+                        data = encoder.encode(frame.image, settings.getQuality(), 1.0);
+                        flags = StreamProtocol.PAYLOAD_JPEG | StreamProtocol.FLAG_KEYFRAME;
+                        fullFrameBytes.set(data.length);
+                    } else {
+                        data = encoder.encode(frame.image, settings.getQuality(), settings.getScale());
+                        flags = StreamProtocol.PAYLOAD_JPEG;
+                    }
+                    encoded = new EncodedFrame(frame.frameNumber, data, flags);
+                    if (frameBytes != null) {
+                        frameBytes.record(data.length);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Frame lỗi vẫn phải qua bước sắp xếp, nếu không các frame sau chờ mãi số frame này
+                    System.err.println("Lỗi mã hóa frame " + frame.frameNumber + ": " + e);
+                    encoded = SKIPPED;
+                    if (tileDelta != null) {
+                        refreshRequested = true;
+                    }
+                } finally {
+                    releaseImage(frame.image);
+                    long elapsed = System.nanoTime() - start;
+                    encodeNanos.addAndGet(elapsed);
+                    if (encodeTime != null) {
+                        encodeTime.record(elapsed);
+                    }
+                }
+                complete(frame.frameNumber, encoded);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Bước sắp xếp lại: chỉ đẩy sang luồng gửi khi các frame trước đó đã xong
+    // Hàng đợi gửi có thể chặn (BLOCK) nên chỉ lấy frame ra trong khóa sắp xếp; lượt gửi được nhận trước khi nhả
+    // khóa để luồng khác có frame sau không đẩy vượt lên
+    private void complete(int frameNumber, EncodedFrame encoded) throws InterruptedException {
+        List<EncodedFrame> ready = null;
+        synchronized (reorderBuffer) {
+            reorderBuffer.put(frameNumber, encoded);
+            EncodedFrame next;
+            while ((next = reorderBuffer.remove(nextToSend)) != null) {
+                nextToSend++;
+                if (next != SKIPPED) {
+                    if (ready == null) {
+                        ready = new ArrayList<>();
+                    }
+                    ready.add(next);
+                }
+            }
+            if (ready == null) {
+                return;
+            }
+            sendOrder.lockInterruptibly();
+        }
+        try {
+            for (EncodedFrame frame : ready) {
+                enqueueForSend(frame);
+            }
+        } finally {
+            sendOrder.unlock();
+        }
+    }
+
+    private void enqueueForSend(EncodedFrame frame) throws InterruptedException {
+        switch (dropPolicy) {
+            case BLOCK:
+                sendQueue.put(frame);
+                break;
+            case DROP_NEWEST:
+                if (!sendQueue.offer(frame)) {
+                    onDropped();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!sendQueue.offer(frame)) {
+                    if (sendQueue.poll() != null) {
+                        onDropped();
+                    }
+                }
+                break;
+        }
+    }
+
+    private void sendLoop() {
+        try {
+            while (running) {
+                EncodedFrame frame = sendQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (frame == null) continue;
+
+                try {
+                    sink.send(frame.data, frame.data.length, frame.frameNumber, frame.flags);
+                    sentFrames.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    // Lỗi từ sink (fanout, bộ điều tốc...) chỉ mất frame này; luồng gửi dừng thì cả kênh tắc
+                    System.err.println("Lỗi gửi frame " + frame.frameNumber + ": " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private BufferedImage copyImage(BufferedImage source) {
+        BufferedImage target = imagePool.poll();
+        if (target == null
+                || target.getWidth() != source.getWidth()
+                || target.getHeight() != source.getHeight()
+                || target.getType() != source.getType()) {
+            ColorModel colorModel = source.getColorModel();
+            return new BufferedImage(colorModel, source.copyData(null), colorModel.isAlphaPremultiplied(), null);
+        }
+        target.setData(source.getRaster());
+        return target;
+    }
+
+    private void releaseImage(BufferedImage image) {
+        imagePool.offer(image);
+    }
+}
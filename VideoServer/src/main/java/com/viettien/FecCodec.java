@@ -0,0 +1,48 @@
+package com.nguyenquynh;
+
+import java.nio.ByteBuffer;
+
+// FEC dạng XOR: mỗi block gồm blockSize gói dữ liệu có một gói parity,
+// đủ để khôi phục một gói bị mất trong block mà không cần gửi lại
+public final class FecCodec {
+    public static final int MAX_BLOCK_SIZE = 255;
+
+    private FecCodec() {
+    }
+
+    // Đổi phần trăm overhead sang số gói dữ liệu mỗi block, 0 là tắt FEC
+    public static int blockSize(int overheadPercent) {
+        if (overheadPercent <= 0) {
+            return 0;
+        }
+        return Math.max(1, Math.min(MAX_BLOCK_SIZE, Math.round(100f / overheadPercent)));
+    }
+
+    public static void clear(byte[] parity) {
+        java.util.Arrays.fill(parity, (byte) 0);
+    }
+
+    // parity[0..1] chứa XOR độ dài, phần còn lại là XOR dữ liệu
+    public static void accumulate(byte[] parity, byte[] data, int offset, int length) {
+        parity[0] ^= (byte) (length >>> 8);
+        parity[1] ^= (byte) length;
+        for (int i = 0; i < length; i++) {
+            parity[2 + i] ^= data[offset + i];
+        }
+    }
+
+    public static void accumulate(byte[] parity, ByteBuffer data, int offset, int length) {
+        parity[0] ^= (byte) (length >>> 8);
+        parity[1] ^= (byte) length;
+        for (int i = 0; i < length; i++) {
+            parity[2 + i] ^= data.get(offset + i);
+        }
+    }
+
+    // Sau khi XOR parity với tất cả gói còn lại của block, phần còn lại chính là gói bị mất:
+    // độ dài ở parity[0..1], dữ liệu bắt đầu từ parity[2]
+    public static int recoveredLength(byte[] parity) {
+        int length = ((parity[0] & 0xFF) << 8) | (parity[1] & 0xFF);
+        return length <= parity.length - 2 ? length : -1;
+    }
+}
@@ -0,0 +1,221 @@
+package com.nguyenquynh;
+
+import java.nio.ByteBuffer;
+
+// Slot ghép một frame ở client. Payload của gói i được chép một lần duy nhất tới vị trí
+// i * PACKET_SIZE trong buffer của slot; slot được dùng lại qua FrameSlotPool.
+public class FrameAssembly {
+    private static final int PACKET_SIZE = StreamProtocol.PACKET_SIZE;
+
+    private final boolean direct;
+    private ByteBuffer data;
+    private int[] lengths = new int[0];
+    private ByteBuffer parity;
+    private boolean[] parityReceived = new boolean[0];
+    private final byte[] scratch = new byte[StreamProtocol.PARITY_PAYLOAD_SIZE];
+
+    private int frameNumber;
+    private int totalPackets;
+    private int blockSize;
+    private int receivedCount;
+    private int flags;
+    private int recoveredCount;
+    private int highestIndex;
+    private long firstArrivalNanos;
+    private long lastNackNanos;
+    private int nackRounds;
+
+    public FrameAssembly(boolean direct, int initialCapacity) {
+        this.direct = direct;
+        this.data = allocate(initialCapacity);
+    }
+
+    // Chuẩn bị slot cho frame mới, chỉ cấp phát lại khi frame lớn hơn sức chứa hiện tại
+    public FrameAssembly reset(int frameNumber, int totalPackets) {
+        this.frameNumber = frameNumber;
+        this.totalPackets = totalPackets;
+        this.blockSize = 0;
+        this.receivedCount = 0;
+        this.flags = -1;
+        this.recoveredCount = 0;
+        this.highestIndex = -1;
+        this.firstArrivalNanos = System.nanoTime();
+        this.lastNackNanos = 0;
+        this.nackRounds = 0;
+
+        int needed = totalPackets * PACKET_SIZE;
+        if (data.capacity() < needed) {
+            data = allocate(Math.max(needed, data.capacity() * 2));
+        }
+        if (lengths.length < totalPackets) {
+            lengths = new int[Math.max(totalPackets, lengths.length * 2)];
+        }
+        java.util.Arrays.fill(lengths, 0, totalPackets, -1);
+        return this;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    // Trả về false nếu gói bị trùng hoặc không hợp lệ
+    public boolean addPacket(int index, int packetFlags, byte[] source, int offset, int length) {
+        if (index < 0 || index >= totalPackets || lengths[index] >= 0) {
+            return false;
+        }
+        // Chỉ gói cuối được ngắn hơn PACKET_SIZE, nhờ vậy frame luôn liền mạch trong buffer
+        if (length > PACKET_SIZE || (index < totalPackets - 1 && length != PACKET_SIZE)) {
+            return false;
+        }
+        if (flags < 0) {
+            flags = StreamProtocol.frameFlags(packetFlags);
+        }
+        data.put(index * PACKET_SIZE, source, offset, length);
+        lengths[index] = length;
+        receivedCount++;
+        highestIndex = Math.max(highestIndex, index);
+
+        if (blockSize > 0) {
+            tryRecover(index / blockSize);
+        }
+        return true;
+    }
+
+    public boolean addParity(int block, int packetFlags, byte[] source, int offset, int length) {
+        int size = StreamProtocol.fecBlockSize(packetFlags);
+        if (size == 0 || length != StreamProtocol.PARITY_PAYLOAD_SIZE) {
+            return false;
+        }
+        if (flags < 0) {
+            flags = StreamProtocol.frameFlags(packetFlags);
+        }
+
+        int blocks = (totalPackets + size - 1) / size;
+        if (blockSize != size) {
+            blockSize = size;
+            if (parityReceived.length < blocks) {
+                parityReceived = new boolean[blocks];
+            }
+            java.util.Arrays.fill(parityReceived, 0, blocks, false);
+            int needed = blocks * StreamProtocol.PARITY_PAYLOAD_SIZE;
+            if (parity == null || parity.capacity() < needed) {
+                parity = allocate(needed);
+            }
+        }
+        if (block < 0 || block >= blocks || parityReceived[block]) {
+            return false;
+        }
+
+        parity.put(block * StreamProtocol.PARITY_PAYLOAD_SIZE, source, offset, length);
+        parityReceived[block] = true;
+        tryRecover(block);
+        return true;
+    }
+
+    private void tryRecover(int block) {
+        if (!parityReceived[block]) {
+            return;
+        }
+
+        int start = block * blockSize;
+        int end = Math.min(start + blockSize, totalPackets);
+        int missing = -1;
+        for (int i = start; i < end; i++) {
+            if (lengths[i] < 0) {
+                if (missing >= 0) {
+                    return; // Mất từ hai gói trở lên, XOR không khôi phục được
+                }
+                missing = i;
+            }
+        }
+        if (missing < 0) {
+            return;
+        }
+
+        parity.get(block * StreamProtocol.PARITY_PAYLOAD_SIZE, scratch, 0, scratch.length);
+        for (int i = start; i < end; i++) {
+            if (i != missing) {
+                FecCodec.accumulate(scratch, data, i * PACKET_SIZE, lengths[i]);
+            }
+        }
+
+        // Cùng điều kiện với addPacket: parity hỏng mà cho gói giữa ngắn hơn PACKET_SIZE sẽ lệch mọi gói sau
+        int length = FecCodec.recoveredLength(scratch);
+        if (length >= 0 && length <= PACKET_SIZE && (missing == totalPackets - 1 || length == PACKET_SIZE)) {
+            data.put(missing * PACKET_SIZE, scratch, 2, length);
+            lengths[missing] = length;
+            receivedCount++;
+            recoveredCount++;
+        }
+    }
+
+    // Ghi các gói còn thiếu dạng "frame:idx,idx" vào NACK; includeTail = cả các gói sau gói cao nhất đã nhận
+    public int appendMissing(StringBuilder nack, int maxLength, boolean includeTail) {
+        int limit = includeTail ? totalPackets : highestIndex;
+        int count = 0;
+        for (int i = 0; i < limit; i++) {
+            if (lengths[i] >= 0) continue;
+            if (nack.length() + 12 > maxLength) break;
+
+            if (count == 0) {
+                if (nack.charAt(nack.length() - 1) != ' ') {
+                    nack.append(';');
+                }
+                nack.append(frameNumber).append(':');
+            } else {
+                nack.append(',');
+            }
+            nack.append(i);
+            count++;
+        }
+        return count;
+    }
+
+    public void markNacked(long now) {
+        lastNackNanos = now;
+        nackRounds++;
+    }
+
+    public boolean isComplete() {
+        return receivedCount == totalPackets;
+    }
+
+    // View chỉ đọc trên dữ liệu frame đã ghép, không sao chép
+    public ByteBuffer frameView() {
+        int length = (totalPackets - 1) * PACKET_SIZE + lengths[totalPackets - 1];
+        return data.slice(0, length).asReadOnlyBuffer();
+    }
+
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    public int getFlags() {
+        return Math.max(0, flags);
+    }
+
+    public int getTotalPackets() {
+        return totalPackets;
+    }
+
+    // Số gói dữ liệu thực sự nhận qua mạng (không tính gói khôi phục bằng FEC)
+    public int getNetworkPackets() {
+        return receivedCount - recoveredCount;
+    }
+
+    public int getRecoveredCount() {
+        return recoveredCount;
+    }
+
+    public long getFirstArrivalNanos() {
+        return firstArrivalNanos;
+    }
+
+    public long getLastNackNanos() {
+        return lastNackNanos;
+    }
+
+    public int getNackRounds() {
+        return nackRounds;
+    }
+}
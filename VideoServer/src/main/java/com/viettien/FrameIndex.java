@@ -0,0 +1,263 @@
+package com.nguyenquynh;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVIndexEntry;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+// Chỉ mục frame và keyframe của một file video (pts micro giây, tính từ đầu luồng), dùng cho SEEK và tua nhanh.
+// Được lưu cạnh file video và dựng lại khi file nguồn đổi kích thước hoặc thời điểm sửa.
+// Bảng tra theo ô 100 ms trỏ tới keyframe cuối cùng không sau đầu ô, nên tìm keyframe gần một mốc chỉ tốn
+// thời gian hằng (vài keyframe trong một ô).
+//
+// Định dạng (big-endian): magic, version, kích thước nguồn, mtime nguồn, số frame, pts các frame,
+//                         số keyframe, pts các keyframe
+public final class FrameIndex {
+    public static final String EXTENSION = ".vsidx";
+    private static final int MAGIC = 0x56534958;
+    private static final int VERSION = 1;
+    private static final long BUCKET_MICROS = 100_000;
+
+    private final long sourceSize;
+    private final long sourceModified;
+    private final long[] framePts;
+    private final long[] keyframePts;
+    // buckets[b]: chỉ số keyframe cuối cùng có pts <= b * BUCKET_MICROS, -1 nếu chưa có
+    private final int[] buckets;
+
+    private FrameIndex(long sourceSize, long sourceModified, long[] framePts, long[] keyframePts) {
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+        this.framePts = framePts;
+        this.keyframePts = keyframePts;
+
+        long last = framePts.length > 0 ? framePts[framePts.length - 1] : 0;
+        buckets = new int[(int) (Math.max(0, last) / BUCKET_MICROS) + 1];
+        int keyframe = -1;
+        for (int b = 0; b < buckets.length; b++) {
+            while (keyframe + 1 < keyframePts.length && keyframePts[keyframe + 1] <= b * BUCKET_MICROS) {
+                keyframe++;
+            }
+            buckets[b] = keyframe;
+        }
+    }
+
+    // Đọc chỉ mục đã lưu nếu còn hợp lệ, nếu không thì dựng (từ chỉ mục của demuxer hoặc quét packet) và lưu lại.
+    // grabber là grabber đang mở của file; chỉ đọc chỉ mục của nó, không làm đổi vị trí đọc
+    public static FrameIndex load(String videoPath, FFmpegFrameGrabber grabber) throws IOException {
+        File source = new File(videoPath);
+        File file = PacketCache.sidecarFile(videoPath, EXTENSION);
+        FrameIndex index = read(file, source);
+        if (index != null) {
+            return index;
+        }
+
+        long startNanos = System.nanoTime();
+        long sourceSize = source.length();
+        long sourceModified = source.lastModified();
+        index = fromDemuxer(grabber, sourceSize, sourceModified);
+        if (index == null) {
+            index = scan(videoPath, sourceSize, sourceModified);
+        }
+        try {
+            index.write(file);
+        } catch (IOException e) {
+            System.err.println("Không thể lưu chỉ mục frame: " + e.getMessage());
+        }
+        System.out.printf("Đã dựng chỉ mục %s: %d frame, %d keyframe, %.2f giây%n", file.getName(),
+                index.getFrameCount(), index.getKeyframeCount(), (System.nanoTime() - startNanos) / 1e9);
+        return index;
+    }
+
+    private static FrameIndex read(File file, File source) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long sourceSize = in.readLong();
+            long sourceModified = in.readLong();
+            if (sourceSize != source.length() || sourceModified != source.lastModified()) {
+                return null;
+            }
+            long[] framePts = new long[in.readInt()];
+            for (int i = 0; i < framePts.length; i++) {
+                framePts[i] = in.readLong();
+            }
+            long[] keyframePts = new long[in.readInt()];
+            for (int i = 0; i < keyframePts.length; i++) {
+                keyframePts[i] = in.readLong();
+            }
+            return new FrameIndex(sourceSize, sourceModified, framePts, keyframePts);
+        } catch (IOException e) {
+            System.err.println("Chỉ mục frame không đọc được, sẽ dựng lại: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Qua file tạm rồi đổi tên (PacketCache.replaceFile), lỗi thì không để lại file tạm
+    private void write(File target) throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeInt(framePts.length);
+            for (long pts : framePts) {
+                out.writeLong(pts);
+            }
+            out.writeInt(keyframePts.length);
+            for (long pts : keyframePts) {
+                out.writeLong(pts);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        PacketCache.replaceFile(temp, target);
+    }
+
+    // MP4/MOV có chỉ mục đầy đủ từng mẫu trong moov; MKV/AVI thường chỉ có cue của keyframe (không đủ để đếm frame)
+    // nên chỉ dùng khi chỉ mục có cả frame không phải keyframe
+    private static FrameIndex fromDemuxer(FFmpegFrameGrabber grabber, long sourceSize, long sourceModified) {
+        AVStream stream = grabber.getFormatContext().streams(grabber.getVideoStream());
+        int count = avformat.avformat_index_get_entries_count(stream);
+        if (count <= 0) {
+            return null;
+        }
+        double timeBase = avutil.av_q2d(stream.time_base());
+        long startPts = stream.start_time() != avutil.AV_NOPTS_VALUE ? stream.start_time() : 0;
+
+        long[] framePts = new long[count];
+        long[] keyframePts = new long[count];
+        int keyframes = 0;
+        for (int i = 0; i < count; i++) {
+            AVIndexEntry entry = avformat.avformat_index_get_entry(stream, i);
+            framePts[i] = (long) ((entry.timestamp() - startPts) * timeBase * 1_000_000);
+            if ((entry.flags() & avformat.AVINDEX_KEYFRAME) != 0) {
+                keyframePts[keyframes++] = framePts[i];
+            }
+        }
+        if (keyframes == 0 || keyframes == count) {
+            return null;
+        }
+        return create(sourceSize, sourceModified, framePts, count, keyframePts, keyframes);
+    }
+
+    // Đọc lần lượt packet của luồng video bằng grabber riêng, chỉ tách gói, không giải mã
+    private static FrameIndex scan(String videoPath, long sourceSize, long sourceModified) throws IOException {
+        FFmpegFrameGrabber scanner = VideoServer.createGrabber(videoPath);
+        long[] framePts = new long[4096];
+        long[] keyframePts = new long[256];
+        int frames = 0;
+        int keyframes = 0;
+        try {
+            scanner.start();
+            int videoIndex = scanner.getVideoStream();
+            AVStream stream = scanner.getFormatContext().streams(videoIndex);
+            double timeBase = avutil.av_q2d(stream.time_base());
+            long startPts = stream.start_time() != avutil.AV_NOPTS_VALUE ? stream.start_time() : 0;
+
+            AVPacket packet;
+            while ((packet = scanner.grabPacket()) != null) {
+                if (packet.stream_index() != videoIndex) {
+                    continue;
+                }
+                long pts = packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+                if (pts == avutil.AV_NOPTS_VALUE) {
+                    continue;
+                }
+                long micros = (long) ((pts - startPts) * timeBase * 1_000_000);
+                if (frames == framePts.length) {
+                    framePts = Arrays.copyOf(framePts, frames * 2);
+                }
+                framePts[frames++] = micros;
+                if ((packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0) {
+                    if (keyframes == keyframePts.length) {
+                        keyframePts = Arrays.copyOf(keyframePts, keyframes * 2);
+                    }
+                    keyframePts[keyframes++] = micros;
+                }
+            }
+        } finally {
+            scanner.stop();
+            scanner.release();
+        }
+        return create(sourceSize, sourceModified, framePts, frames, keyframePts, keyframes);
+    }
+
+    // Packet đến theo thứ tự giải mã (có B-frame thì pts không tăng dần) nên sắp xếp lại
+    private static FrameIndex create(long sourceSize, long sourceModified, long[] framePts, int frames,
+                                     long[] keyframePts, int keyframes) {
+        long[] sortedFrames = Arrays.copyOf(framePts, frames);
+        long[] sortedKeyframes = Arrays.copyOf(keyframePts, keyframes);
+        Arrays.sort(sortedFrames);
+        Arrays.sort(sortedKeyframes);
+        return new FrameIndex(sourceSize, sourceModified, sortedFrames, sortedKeyframes);
+    }
+
+    private int keyframeIndexAtOrBefore(long micros) {
+        if (micros < 0) {
+            return -1;
+        }
+        int i = buckets[(int) Math.min(buckets.length - 1, micros / BUCKET_MICROS)];
+        while (i + 1 < keyframePts.length && keyframePts[i + 1] <= micros) {
+            i++;
+        }
+        return i;
+    }
+
+    // Keyframe gần nhất không sau mốc; trước keyframe đầu tiên thì trả về keyframe đầu (hoặc 0 nếu không có)
+    public long keyframeAtOrBefore(long micros) {
+        int i = keyframeIndexAtOrBefore(micros);
+        if (i < 0) {
+            return keyframePts.length > 0 ? keyframePts[0] : 0;
+        }
+        return keyframePts[i];
+    }
+
+    // Keyframe đầu tiên sau mốc, -1 nếu không còn
+    public long keyframeAfter(long micros) {
+        int i = keyframeIndexAtOrBefore(micros) + 1;
+        return i < keyframePts.length ? keyframePts[i] : -1;
+    }
+
+    // Keyframe cuối cùng trước mốc, -1 nếu không có
+    public long keyframeBefore(long micros) {
+        int i = keyframeIndexAtOrBefore(micros);
+        if (i >= 0 && keyframePts[i] == micros) {
+            i--;
+        }
+        return i >= 0 ? keyframePts[i] : -1;
+    }
+
+    public int getFrameCount() {
+        return framePts.length;
+    }
+
+    public int getKeyframeCount() {
+        return keyframePts.length;
+    }
+
+    // pts của frame cuối cùng
+    public long getDurationMicros() {
+        return framePts.length > 0 ? framePts[framePts.length - 1] : 0;
+    }
+}
@@ -0,0 +1,127 @@
+package com.nguyenquynh;
+
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Hộp thư một chỗ giữa luồng giải mã và luồng FX: chỉ giữ frame mới nhất chờ hiển thị.
+// Mỗi Surface là một WritableImage dựng trên PixelBuffer (direct ByteBuffer, BGRA premultiplied)
+// và được dùng lại; surface đang hiển thị hoặc đang chờ không bao giờ bị ghi đè.
+public class FrameMailbox {
+    private enum State { FREE, WRITING, PENDING, DISPLAYED }
+
+    public static final class Surface {
+        private final int width;
+        private final int height;
+        private final ByteBuffer pixels;
+        private final PixelBuffer<ByteBuffer> pixelBuffer;
+        private final WritableImage image;
+        private State state = State.FREE;
+        private long frameNumber;
+        private long publishedNanos;
+
+        private Surface(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = ByteBuffer.allocateDirect(width * height * 4);
+            this.pixelBuffer = new PixelBuffer<>(width, height, pixels, PixelFormat.getByteBgraPreInstance());
+            this.image = new WritableImage(pixelBuffer);
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        // Buffer BGRA, mỗi dòng width * 4 byte
+        public ByteBuffer getPixels() {
+            return pixels;
+        }
+
+        public WritableImage getImage() {
+            return image;
+        }
+
+        public long getFrameNumber() {
+            return frameNumber;
+        }
+
+        // Thời điểm frame được đưa vào hộp thư (System.nanoTime)
+        public long getPublishedNanos() {
+            return publishedNanos;
+        }
+
+        // Chỉ gọi trên luồng FX: báo cho JavaFX toàn bộ buffer đã thay đổi
+        public void markDirty() {
+            pixelBuffer.updateBuffer(buffer -> null);
+        }
+    }
+
+    private final List<Surface> surfaces = new ArrayList<>();
+    private Surface pending;
+    private Surface displayed;
+    private long replacedFrames;
+
+    // Lấy một surface rảnh đúng kích thước để ghi frame mới
+    public synchronized Surface acquire(int width, int height) {
+        Surface candidate = null;
+        for (int i = 0; i < surfaces.size(); i++) {
+            Surface surface = surfaces.get(i);
+            if (surface.state != State.FREE) continue;
+            if (surface.width == width && surface.height == height) {
+                candidate = surface;
+                break;
+            }
+            // Surface sai kích thước (video đổi độ phân giải) thì bỏ
+            surfaces.remove(i--);
+        }
+        if (candidate == null) {
+            candidate = new Surface(width, height);
+            surfaces.add(candidate);
+        }
+        candidate.state = State.WRITING;
+        return candidate;
+    }
+
+    // Trả surface không dùng tới (giải mã lỗi, frame bị bỏ)
+    public synchronized void discard(Surface surface) {
+        surface.state = State.FREE;
+    }
+
+    // Đặt frame vào hộp thư; frame chờ trước đó (chưa kịp hiển thị) bị thay thế
+    public synchronized void publish(Surface surface, long frameNumber) {
+        surface.frameNumber = frameNumber;
+        surface.publishedNanos = System.nanoTime();
+        if (pending != null) {
+            pending.state = State.FREE;
+            replacedFrames++;
+        }
+        surface.state = State.PENDING;
+        pending = surface;
+    }
+
+    // Gọi từ AnimationTimer: lấy frame mới nhất (nếu có) và đánh dấu là đang hiển thị
+    public synchronized Surface takeLatest() {
+        Surface surface = pending;
+        if (surface == null) {
+            return null;
+        }
+        pending = null;
+        if (displayed != null && displayed != surface) {
+            displayed.state = State.FREE;
+        }
+        surface.state = State.DISPLAYED;
+        displayed = surface;
+        return surface;
+    }
+
+    public synchronized long getReplacedFrames() {
+        return replacedFrames;
+    }
+}
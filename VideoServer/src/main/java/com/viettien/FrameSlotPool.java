@@ -0,0 +1,33 @@
+package com.nguyenquynh;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Pool các slot ghép frame cấp phát sẵn (tùy chọn off-heap) để không tạo buffer mới cho mỗi frame
+public class FrameSlotPool {
+    private static final int INITIAL_SLOT_BYTES = 256 * 1024;
+
+    private final boolean direct;
+    private final BlockingQueue<FrameAssembly> free;
+
+    public FrameSlotPool(int slots, boolean direct) {
+        this.direct = direct;
+        this.free = new ArrayBlockingQueue<>(slots);
+        for (int i = 0; i < slots; i++) {
+            free.offer(new FrameAssembly(direct, INITIAL_SLOT_BYTES));
+        }
+    }
+
+    public FrameAssembly acquire(int frameNumber, int totalPackets) {
+        FrameAssembly slot = free.poll();
+        if (slot == null) {
+            // Hết slot (bộ giải mã đang giữ nhiều frame), cấp thêm; slot sẽ được giữ lại nếu pool còn chỗ
+            slot = new FrameAssembly(direct, INITIAL_SLOT_BYTES);
+        }
+        return slot.reset(frameNumber, totalPackets);
+    }
+
+    public void release(FrameAssembly slot) {
+        free.offer(slot);
+    }
+}
@@ -0,0 +1,102 @@
+package com.nguyenquynh;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.ffmpeg.global.swscale;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.PointerPointer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Giải mã các access unit H.264 (Annex B) nhận từ server thành ảnh JavaFX
+public class H264Decoder implements AutoCloseable {
+    private final AVCodecContext context;
+    private final AVPacket packet;
+    private final AVFrame frame;
+    private final PointerPointer<BytePointer> dstData = new PointerPointer<>(1);
+    private final IntPointer dstStride = new IntPointer(1);
+
+    private SwsContext swsContext;
+
+    public H264Decoder() throws IOException {
+        AVCodec codec = avcodec.avcodec_find_decoder(avcodec.AV_CODEC_ID_H264);
+        if (codec == null) {
+            throw new IOException("Không tìm thấy bộ giải mã H.264");
+        }
+
+        context = avcodec.avcodec_alloc_context3(codec);
+        context.thread_count(0);
+        if (avcodec.avcodec_open2(context, codec, (AVDictionary) null) < 0) {
+            throw new IOException("Không thể mở bộ giải mã H.264");
+        }
+
+        packet = avcodec.av_packet_alloc();
+        frame = avutil.av_frame_alloc();
+    }
+
+    // Trả về surface đã ghi frame cuối cùng giải mã được, hoặc null nếu decoder chưa xuất frame nào
+    public FrameMailbox.Surface decode(ByteBuffer data, FrameMailbox mailbox) {
+        int length = data.remaining();
+        if (avcodec.av_new_packet(packet, length) < 0) {
+            return null;
+        }
+        packet.data().capacity(length).asByteBuffer().put(data);
+
+        int result = avcodec.avcodec_send_packet(context, packet);
+        avcodec.av_packet_unref(packet);
+        if (result < 0) {
+            return null;
+        }
+
+        FrameMailbox.Surface surface = null;
+        while (avcodec.avcodec_receive_frame(context, frame) == 0) {
+            if (surface != null) {
+                mailbox.discard(surface);
+            }
+            surface = convertFrame(mailbox);
+            avutil.av_frame_unref(frame);
+        }
+        return surface;
+    }
+
+    // Chuyển YUV sang BGRA ghi thẳng vào buffer của surface
+    private FrameMailbox.Surface convertFrame(FrameMailbox mailbox) {
+        int w = frame.width();
+        int h = frame.height();
+
+        swsContext = swscale.sws_getCachedContext(swsContext, w, h, frame.format(),
+                w, h, avutil.AV_PIX_FMT_BGRA, swscale.SWS_BILINEAR, null, null, (DoublePointer) null);
+
+        FrameMailbox.Surface surface = mailbox.acquire(w, h);
+        try (BytePointer target = new BytePointer(surface.getPixels())) {
+            dstData.put(0, target);
+            dstStride.put(0, w * 4);
+            swscale.sws_scale(swsContext, frame.data(), frame.linesize(), 0, h, dstData, dstStride);
+        }
+        return surface;
+    }
+
+    public void flush() {
+        avcodec.avcodec_flush_buffers(context);
+    }
+
+    @Override
+    public void close() {
+        avcodec.avcodec_free_context(context);
+        avcodec.av_packet_free(packet);
+        avutil.av_frame_free(frame);
+        if (swsContext != null) {
+            swscale.sws_freeContext(swsContext);
+        }
+        dstData.close();
+        dstStride.close();
+    }
+}
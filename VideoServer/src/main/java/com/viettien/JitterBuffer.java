@@ -0,0 +1,242 @@
+package com.nguyenquynh;
+
+import java.util.function.Consumer;
+
+// Bộ đệm jitter phía client: cửa sổ cố định các frame theo frameNumber.
+// Frame được trả ra đúng thứ tự; frame chưa đủ gói bị loại khi quá hạn phát (playout delay),
+// nên bộ nhớ không tăng dù có frame không bao giờ hoàn tất.
+public class JitterBuffer {
+    // Lùi quá xa thì coi như server khởi động lại
+    private static final int RESET_DISTANCE = 1000;
+
+    private final FrameAssembly[] slots;
+    private final FrameSlotPool slotPool;
+    private final int capacity;
+    private volatile long playoutDelayNanos;
+    private int nextPlayout = -1;
+    private int pendingCount = 0;
+    // Chưa có frame nào rời bộ đệm kể từ lần reset: frame cũ hơn đầu cửa sổ vẫn được nhận
+    // (frame hoàn chỉnh server gửi ngay khi client vào có thể đến sau gói của frame đang phát)
+    private boolean awaitingFirstFrame = true;
+
+    private long completedFrames;
+    private long latePackets;
+    private long duplicatePackets;
+    private long invalidPackets;
+    private long evictedFrames;
+    private long droppedFrames;
+    private long expectedPackets;
+    private long receivedPackets;
+
+    public JitterBuffer(int capacity, long playoutDelayNanos, FrameSlotPool slotPool) {
+        this.capacity = capacity;
+        this.slots = new FrameAssembly[capacity];
+        this.slotPool = slotPool;
+        this.playoutDelayNanos = playoutDelayNanos;
+    }
+
+    public void setPlayoutDelay(long playoutDelayNanos) {
+        this.playoutDelayNanos = playoutDelayNanos;
+    }
+
+    public long getPlayoutDelay() {
+        return playoutDelayNanos;
+    }
+
+    // Trả về frame chứa gói, hoặc null nếu gói bị loại (trễ/trùng/header không hợp lệ).
+    // Payload được chép thẳng vào slot nên buffer nhận có thể dùng lại ngay.
+    public FrameAssembly offer(int frameNumber, int packetIndex, int totalPackets, int flags,
+                               byte[] data, int offset, int length) {
+        // Header lấy thẳng từ datagram: kiểm tra trước khi cấp slot hay dời cửa sổ
+        if (totalPackets < 1 || totalPackets > StreamProtocol.MAX_FRAME_PACKETS
+                || packetIndex < 0 || packetIndex >= totalPackets) {
+            invalidPackets++;
+            return null;
+        }
+        if (nextPlayout < 0 || frameNumber < nextPlayout - RESET_DISTANCE || frameNumber >= nextPlayout + RESET_DISTANCE) {
+            reset(frameNumber);
+        }
+        if (frameNumber < nextPlayout && !(awaitingFirstFrame && rewindTo(frameNumber))) {
+            latePackets++;
+            return null;
+        }
+        if (frameNumber >= nextPlayout + capacity) {
+            // Cửa sổ đầy: đẩy đầu cửa sổ lên, các frame cũ chưa xong bị loại
+            advanceTo(frameNumber - capacity + 1);
+        }
+
+        int index = slotIndex(frameNumber);
+        FrameAssembly assembly = slots[index];
+        if (assembly == null) {
+            assembly = slotPool.acquire(frameNumber, totalPackets);
+            slots[index] = assembly;
+            pendingCount++;
+        }
+
+        boolean added = StreamProtocol.isParity(flags)
+                ? assembly.addParity(packetIndex, flags, data, offset, length)
+                : assembly.addPacket(packetIndex, flags, data, offset, length);
+        if (!added) {
+            duplicatePackets++;
+        }
+        return assembly;
+    }
+
+    // Lấy frame kế tiếp theo thứ tự nếu đã sẵn sàng; gọi lặp lại đến khi trả về null.
+    // Người nhận phải gọi release() sau khi giải mã xong.
+    public FrameAssembly poll(long now) {
+        while (pendingCount > 0) {
+            int index = slotIndex(nextPlayout);
+            FrameAssembly head = slots[index];
+            if (head != null) {
+                if (head.isComplete()) {
+                    removeHead(index);
+                    countPackets(head);
+                    completedFrames++;
+                    awaitingFirstFrame = false;
+                    return head;
+                }
+                if (now - head.getFirstArrivalNanos() >= playoutDelayNanos) {
+                    removeHead(index);
+                    countPackets(head);
+                    slotPool.release(head);
+                    evictedFrames++;
+                    awaitingFirstFrame = false;
+                    continue;
+                }
+                return null;
+            }
+
+            // Frame đầu chưa nhận được gói nào: chờ một phần playout delay cho gói đến sai thứ tự rồi bỏ qua
+            FrameAssembly oldest = oldestPending();
+            if (oldest == null || now - oldest.getFirstArrivalNanos() < playoutDelayNanos / 4) {
+                return null;
+            }
+            droppedFrames += oldest.getFrameNumber() - nextPlayout;
+            nextPlayout = oldest.getFrameNumber();
+        }
+        return null;
+    }
+
+    public void forEachPending(Consumer<FrameAssembly> action) {
+        if (pendingCount == 0) return;
+        for (FrameAssembly assembly : slots) {
+            if (assembly != null) {
+                action.accept(assembly);
+            }
+        }
+    }
+
+    public boolean isExpired(FrameAssembly assembly, long now) {
+        return now - assembly.getFirstArrivalNanos() >= playoutDelayNanos;
+    }
+
+    private FrameAssembly oldestPending() {
+        for (int i = 1; i < capacity; i++) {
+            FrameAssembly assembly = slots[slotIndex(nextPlayout + i)];
+            if (assembly != null) {
+                return assembly;
+            }
+        }
+        return null;
+    }
+
+    // Lùi đầu cửa sổ về frameNumber nếu các frame đang chờ vẫn nằm trong cửa sổ mới
+    private boolean rewindTo(int frameNumber) {
+        if (frameNumber <= nextPlayout - capacity) {
+            return false;
+        }
+        for (FrameAssembly assembly : slots) {
+            if (assembly != null && assembly.getFrameNumber() >= frameNumber + capacity) {
+                return false;
+            }
+        }
+        nextPlayout = frameNumber;
+        return true;
+    }
+
+    private void advanceTo(int frameNumber) {
+        while (nextPlayout < frameNumber) {
+            int index = slotIndex(nextPlayout);
+            FrameAssembly evicted = slots[index];
+            if (evicted != null) {
+                removeHead(index);
+                countPackets(evicted);
+                slotPool.release(evicted);
+                evictedFrames++;
+            } else {
+                droppedFrames++;
+                nextPlayout++;
+            }
+        }
+    }
+
+    // Thống kê mất gói tính trên các frame đã rời bộ đệm
+    private void countPackets(FrameAssembly assembly) {
+        expectedPackets += assembly.getTotalPackets();
+        receivedPackets += assembly.getNetworkPackets();
+    }
+
+    private void removeHead(int index) {
+        slots[index] = null;
+        pendingCount--;
+        nextPlayout++;
+    }
+
+    public void release(FrameAssembly assembly) {
+        slotPool.release(assembly);
+    }
+
+    // Bỏ mọi frame đang chờ, ví dụ khi chuyển sang lớp simulcast khác; gói kế tiếp bắt đầu cửa sổ mới
+    public void clear() {
+        reset(-1);
+    }
+
+    private void reset(int frameNumber) {
+        for (int i = 0; i < capacity; i++) {
+            if (slots[i] != null) {
+                slotPool.release(slots[i]);
+                slots[i] = null;
+            }
+        }
+        pendingCount = 0;
+        nextPlayout = frameNumber;
+        awaitingFirstFrame = true;
+    }
+
+    private int slotIndex(int frameNumber) {
+        return Math.floorMod(frameNumber, capacity);
+    }
+
+    public long getCompletedFrames() {
+        return completedFrames;
+    }
+
+    public long getLatePackets() {
+        return latePackets;
+    }
+
+    public long getDuplicatePackets() {
+        return duplicatePackets;
+    }
+
+    public long getInvalidPackets() {
+        return invalidPackets;
+    }
+
+    public long getEvictedFrames() {
+        return evictedFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public long getExpectedPackets() {
+        return expectedPackets;
+    }
+
+    public long getReceivedPackets() {
+        return receivedPackets;
+    }
+}
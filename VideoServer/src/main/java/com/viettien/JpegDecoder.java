@@ -0,0 +1,58 @@
+package com.nguyenquynh;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Giải mã JPEG ngoài luồng FX và ghi thẳng vào surface BGRA của FrameMailbox
+public class JpegDecoder implements AutoCloseable {
+    private final ImageReader reader;
+    private final ImageReadParam param;
+    // Ảnh đích dùng lại giữa các frame cùng kích thước, không cấp phát ảnh mới cho mỗi frame
+    private BufferedImage destination;
+
+    public JpegDecoder() {
+        reader = ImageIO.getImageReadersByFormatName("jpg").next();
+        param = reader.getDefaultReadParam();
+    }
+
+    // Trả về surface đã ghi (trạng thái WRITING), người gọi publish hoặc discard
+    public FrameMailbox.Surface decode(ByteBuffer data, FrameMailbox mailbox) throws IOException {
+        BufferedImage image = read(data);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        FrameMailbox.Surface surface = mailbox.acquire(width, height);
+        PixelConverter.copyToBgra(image, surface.getPixels());
+        return surface;
+    }
+
+    // Giải mã JPEG bắt đầu từ vị trí hiện tại của data. Ảnh trả về được dùng lại làm đích cho lần đọc sau nếu
+    // kích thước và kiểu không đổi, nên chỉ hợp lệ tới lần read/decode kế tiếp
+    public BufferedImage read(ByteBuffer data) throws IOException {
+        try (MemoryCacheImageInputStream stream = new MemoryCacheImageInputStream(new ByteBufferInputStream(data))) {
+            reader.setInput(stream, true, true);
+            ImageTypeSpecifier type = reader.getImageTypes(0).next();
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if (destination == null || destination.getWidth() != width || destination.getHeight() != height
+                    || type.getBufferedImageType() == BufferedImage.TYPE_CUSTOM
+                    || destination.getType() != type.getBufferedImageType()) {
+                destination = type.createBufferedImage(width, height);
+            }
+            param.setDestination(destination);
+            return reader.read(0, param);
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    @Override
+    public void close() {
+        reader.dispose();
+    }
+}
@@ -0,0 +1,79 @@
+package com.nguyenquynh;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+// Bộ mã hóa JPEG dùng lại ImageWriter và buffer, mỗi luồng mã hóa giữ một instance riêng
+public class JpegEncoder implements AutoCloseable {
+    private final ImageWriter writer;
+    private final ImageWriteParam param;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(64 * 1024);
+    private BufferedImage scaledImage;
+
+    // Chất lượng mặc định của ImageIO
+    public static final float DEFAULT_QUALITY = 0.75f;
+
+    static {
+        // Không dùng file cache tạm trên đĩa khi ghi ảnh
+        ImageIO.setUseCache(false);
+    }
+
+    public JpegEncoder() {
+        writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        param = writer.getDefaultWriteParam();
+    }
+
+    public byte[] encode(BufferedImage image) throws IOException {
+        return encode(image, DEFAULT_QUALITY, 1.0);
+    }
+
+    // scale < 1 thì thu nhỏ ảnh trước khi mã hóa
+    public byte[] encode(BufferedImage image, float quality, double scale) throws IOException {
+        BufferedImage source = scale < 0.99 ? scale(image, scale) : image;
+
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+
+        output.reset();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(source, null, null), param);
+        }
+        return output.toByteArray();
+    }
+
+    private BufferedImage scale(BufferedImage image, double scale) {
+        int width = scaledSize(image.getWidth(), scale);
+        int height = scaledSize(image.getHeight(), scale);
+        if (scaledImage == null || scaledImage.getWidth() != width || scaledImage.getHeight() != height) {
+            scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        }
+
+        Graphics2D graphics = scaledImage.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaledImage;
+    }
+
+    // Giữ kích thước chẵn cho dễ giải mã
+    static int scaledSize(int size, double scale) {
+        return Math.max(16, (int) Math.round(size * scale) & ~1);
+    }
+
+    @Override
+    public void close() {
+        writer.dispose();
+    }
+}
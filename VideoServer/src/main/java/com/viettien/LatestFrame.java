@@ -0,0 +1,106 @@
+package com.nguyenquynh;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Datagram (kể cả parity) của frame hoàn chỉnh gần nhất đã gửi trên một lớp, để gửi ngay cho client mới vào
+// thay vì để client chờ frame kế tiếp. Luồng gửi ghi frame đang gửi vào bộ đệm riêng và chỉ hoán đổi khi
+// đã gửi đủ gói, nên frame được lấy ra luôn trọn vẹn. Frame H.264 và frame ô (chế độ delta) chỉ giữ keyframe
+// vì frame khác không tự giải mã được.
+//
+// Định dạng giống PacketSender.sendDatagrams: [độ dài u16][header + payload]
+public class LatestFrame {
+    private byte[] building = new byte[64 * 1024];
+    private int buildingLength;
+    private int buildingCount;
+    private boolean buildingWanted;
+
+    private byte[] complete = new byte[64 * 1024];
+    private int completeLength;
+    private int completeCount;
+    private int completeFrameNumber = -1;
+    private long completedNanos;
+
+    // Các hàm begin/append/commit chỉ được gọi từ luồng gửi của lớp
+    void begin(int flags) {
+        buildingLength = 0;
+        buildingCount = 0;
+        buildingWanted = StreamProtocol.payloadType(flags) == StreamProtocol.PAYLOAD_JPEG
+                || StreamProtocol.isKeyframe(flags);
+    }
+
+    // datagram: buffer đã flip, vị trí và giới hạn được giữ nguyên
+    void append(ByteBuffer datagram) {
+        if (!buildingWanted) {
+            return;
+        }
+        int length = datagram.remaining();
+        if (buildingLength + 2 + length > building.length) {
+            building = Arrays.copyOf(building, Math.max(building.length * 2, buildingLength + 2 + length));
+        }
+        building[buildingLength] = (byte) (length >>> 8);
+        building[buildingLength + 1] = (byte) length;
+        datagram.get(datagram.position(), building, buildingLength + 2, length);
+        buildingLength += 2 + length;
+        buildingCount++;
+    }
+
+    void commit(int frameNumber) {
+        if (!buildingWanted || buildingCount == 0) {
+            return;
+        }
+        synchronized (this) {
+            byte[] swap = complete;
+            complete = building;
+            completeLength = buildingLength;
+            completeCount = buildingCount;
+            completeFrameNumber = frameNumber;
+            completedNanos = System.nanoTime();
+            building = swap;
+        }
+        buildingWanted = false;
+    }
+
+    // Bỏ frame đã giữ, để khi bật lại không gửi cho client một frame cũ
+    synchronized void clear() {
+        completeCount = 0;
+        completeLength = 0;
+        completeFrameNumber = -1;
+    }
+
+    // Bản sao của frame hoàn chỉnh gần nhất để gửi ngoài khóa, null nếu chưa có frame nào
+    public synchronized Snapshot snapshot() {
+        if (completeCount == 0) {
+            return null;
+        }
+        return new Snapshot(Arrays.copyOf(complete, completeLength), completeCount, completeFrameNumber,
+                System.nanoTime() - completedNanos);
+    }
+
+    public static final class Snapshot {
+        final byte[] data;
+        final int count;
+        final int frameNumber;
+        final long ageNanos;
+
+        Snapshot(byte[] data, int count, int frameNumber, long ageNanos) {
+            this.data = data;
+            this.count = count;
+            this.frameNumber = frameNumber;
+            this.ageNanos = ageNanos;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getFrameNumber() {
+            return frameNumber;
+        }
+
+        // Thời gian từ lúc frame được gửi xong tới lúc lấy bản sao
+        public long getAgeNanos() {
+            return ageNanos;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.nguyenquynh;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Thử tải trên một máy: một VideoServer không giao diện phát nguồn tổng hợp (hoặc file) và hàng trăm
+// SimulatedClient nhận trên loopback, multicast hoặc unicast, với mất gói/đảo thứ tự/trễ giả lập.
+// Báo cáo tỉ lệ frame hoàn tất của từng client, phân bố độ trễ và CPU của server.
+//
+// Cách dùng: LoadTest [--clients 200] [--duration 60] [--unicast] [--nack] [--loss 1] [--reorder 1]
+//                     [--reorder-ms 30] [--delay 20] [--jitter 10] [--playout 200] [--port 6000]
+//                     [--encoders 4] [--source lavfi:testsrc2=size=1280x720:rate=30] [--no-instant-join]
+// Mỗi client dùng một địa chỉ 127.1.x.y riêng (Linux định tuyến cả dải 127/8 về loopback).
+public class LoadTest {
+    private static final String DEFAULT_SOURCE = VideoServer.SYNTHETIC_PREFIX + "testsrc2=size=1280x720:rate=30";
+    private static final String LOAD_TEST_GROUP = "239.255.30.1";
+    private static final int SEND_TIME_SLOTS = 1024;
+    private static final long STATS_INTERVAL_MILLIS = 5000;
+    private static final long STARTUP_MILLIS = 2000;
+
+    private int clientCount = 200;
+    private long durationSeconds = 60;
+    private boolean unicast = false;
+    private boolean nack = false;
+    private boolean instantJoin = true;
+    private double lossPercent = 0;
+    private double reorderPercent = 0;
+    private long reorderMillis = 30;
+    private long delayMillis = 0;
+    private long jitterMillis = 0;
+    private long playoutDelayMillis = 200;
+    private int port = 6000;
+    private int encoderThreads = EncodePipeline.defaultEncoderThreads();
+    private String source = DEFAULT_SOURCE;
+
+    // Thời điểm bắt đầu gửi của các frame gần đây ở lớp 0, theo frameNumber
+    private final AtomicIntegerArray sentFrameNumbers = new AtomicIntegerArray(SEND_TIME_SLOTS);
+    private final AtomicLongArray sentNanos = new AtomicLongArray(SEND_TIME_SLOTS);
+    private final Histogram latency = new Histogram();
+    private final List<SimulatedClient> clients = new ArrayList<>();
+    private final com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        try {
+            test.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Cách dùng: LoadTest [--clients N] [--duration giây] [--unicast] [--nack] [--loss %] [--reorder %]"
+                    + " [--reorder-ms ms] [--delay ms] [--jitter ms] [--playout ms] [--port N] [--encoders N] [--source đường dẫn|lavfi:...]"
+                    + " [--no-instant-join]");
+            System.exit(1);
+        }
+        test.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            switch (option) {
+                case "--unicast" -> unicast = true;
+                case "--nack" -> nack = true;
+                case "--no-instant-join" -> instantJoin = false;
+                default -> {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("Thiếu giá trị cho " + option);
+                    }
+                    String value = args[++i];
+                    switch (option) {
+                        case "--clients" -> clientCount = Integer.parseInt(value);
+                        case "--duration" -> durationSeconds = Long.parseLong(value);
+                        case "--loss" -> lossPercent = Double.parseDouble(value);
+                        case "--reorder" -> reorderPercent = Double.parseDouble(value);
+                        case "--reorder-ms" -> reorderMillis = Long.parseLong(value);
+                        case "--delay" -> delayMillis = Long.parseLong(value);
+                        case "--jitter" -> jitterMillis = Long.parseLong(value);
+                        case "--playout" -> playoutDelayMillis = Long.parseLong(value);
+                        case "--port" -> port = Integer.parseInt(value);
+                        case "--encoders" -> encoderThreads = Integer.parseInt(value);
+                        case "--source" -> source = value;
+                        default -> throw new IllegalArgumentException("Tùy chọn không hợp lệ: " + option);
+                    }
+                }
+            }
+        }
+        if (clientCount < 1 || clientCount > 250 * 250) {
+            throw new IllegalArgumentException("Số client phải từ 1 đến " + 250 * 250);
+        }
+    }
+
+    private void run() throws Exception {
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        StreamLayer layer = StreamLayer.single(LOAD_TEST_GROUP, port).get(0);
+
+        VideoServer server = new VideoServer(source, "127.0.0.1", port, false, true);
+        server.setChannelName("loadtest");
+        server.setLayers(List.of(layer));
+        server.setEncoderThreads(encoderThreads);
+        server.setUnicast(unicast);
+        server.setMulticastInterface(loopback);
+        server.setFrameListener(this::recordSend);
+        server.setInstantJoin(instantJoin);
+        server.streamVideo();
+        Thread.sleep(STARTUP_MILLIS);
+        if (!server.isRunning()) {
+            System.err.println("Server không khởi động được: " + server.getStatus());
+            System.exit(1);
+        }
+
+        SimulatedClient.Impairment impairment = new SimulatedClient.Impairment(
+                lossPercent, reorderPercent, delayMillis, jitterMillis, reorderMillis);
+        if (nack && !unicast) {
+            // Gói gửi lại đi tới 127.1.x.y:port, nhưng ở chế độ multicast mọi client cùng nghe wildcard:port
+            System.out.println("NACK chỉ dùng được với --unicast, bỏ qua");
+            nack = false;
+        }
+        if (instantJoin && !unicast) {
+            // Cùng lý do: frame gửi khi vào đi tới 127.1.x.y:port nên chỉ một client nghe wildcard:port nhận được
+            System.out.println("Đo hình đầu tiên chỉ chính xác với --unicast");
+        }
+        System.out.printf("Thử tải: %d client %s, %s, nguồn %s%n", clientCount, unicast ? "unicast" : "multicast",
+                impairment, source);
+
+        InetSocketAddress serverControl = new InetSocketAddress(InetAddress.getLoopbackAddress(), port + 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            SimulatedClient client = new SimulatedClient(i, clientAddress(i), serverControl, layer, unicast, loopback,
+                    impairment, nack, playoutDelayMillis, this::sendStartNanos, latency);
+            clients.add(client);
+            threads.add(Thread.ofVirtual().name("client-" + i).start(client));
+        }
+
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + durationSeconds * 1_000_000_000L;
+        long startBusy = server.getBusyNanos();
+        long startCpu = os.getProcessCpuTime();
+        long lastNanos = startNanos;
+        long lastBusy = startBusy;
+        long lastCpu = startCpu;
+        long lastBytes = server.getBytesSent();
+        while (System.nanoTime() < endNanos && server.isRunning()) {
+            Thread.sleep(Math.min(STATS_INTERVAL_MILLIS, Math.max(1, (endNanos - System.nanoTime()) / 1_000_000)));
+            long now = System.nanoTime();
+            long busy = server.getBusyNanos();
+            long cpu = os.getProcessCpuTime();
+            long bytes = server.getBytesSent();
+            double seconds = (now - lastNanos) / 1e9;
+            System.out.printf(Locale.ROOT, "[%3ds] phiên %d | %.1f Mbit/s | server %.0f%% | tiến trình %.0f%% | hoàn tất %.1f%% | trễ p50 %.1f ms p99 %.1f ms%n",
+                    (now - startNanos) / 1_000_000_000L, server.getSessions().size(),
+                    (bytes - lastBytes) * 8 / 1e6 / seconds, (busy - lastBusy) / 1e9 / seconds * 100,
+                    (cpu - lastCpu) / 1e9 / seconds * 100, meanCompletion() * 100,
+                    latency.percentile(0.5) / 1e6, latency.percentile(0.99) / 1e6);
+            lastNanos = now;
+            lastBusy = busy;
+            lastCpu = cpu;
+            lastBytes = bytes;
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double serverCpu = (server.getBusyNanos() - startBusy) / 1e9 / seconds * 100;
+        double processCpu = (os.getProcessCpuTime() - startCpu) / 1e9 / seconds * 100;
+        for (SimulatedClient client : clients) {
+            client.stop();
+        }
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+        server.stopServer();
+        report(serverCpu, processCpu, server.getFrameRate());
+        System.exit(0);
+    }
+
+    private void recordSend(int layerId, int frameNumber, long sendStartNanos) {
+        if (layerId != 0) return;
+        int slot = frameNumber & (SEND_TIME_SLOTS - 1);
+        sentNanos.set(slot, sendStartNanos);
+        sentFrameNumbers.set(slot, frameNumber);
+    }
+
+    private long sendStartNanos(int frameNumber) {
+        int slot = frameNumber & (SEND_TIME_SLOTS - 1);
+        return sentFrameNumbers.get(slot) == frameNumber ? sentNanos.get(slot) : 0;
+    }
+
+    // 127.1.x.y với y từ 1 đến 250, không trùng 127.0.0.1 của server
+    private static InetAddress clientAddress(int index) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{127, 1, (byte) (index / 250), (byte) (index % 250 + 1)});
+    }
+
+    private double meanCompletion() {
+        double total = 0;
+        for (SimulatedClient client : clients) {
+            total += client.getCompletionRate();
+        }
+        return clients.isEmpty() ? 0 : total / clients.size();
+    }
+
+    private void report(double serverCpu, double processCpu, double frameRate) {
+        List<SimulatedClient> sorted = new ArrayList<>(clients);
+        sorted.sort(Comparator.comparingDouble(SimulatedClient::getCompletionRate));
+
+        System.out.println();
+        System.out.println("client  địa chỉ          hoàn tất  frame    p50 ms   p99 ms   max ms   gói nhận  bỏ      đảo     NACK");
+        for (SimulatedClient client : sorted) {
+            Histogram clientLatency = client.getLatency();
+            System.out.printf(Locale.ROOT, "%-7d %-16s %7.2f%%  %-8d %-8.1f %-8.1f %-8.1f %-9d %-7d %-7d %d%n",
+                    client.getId(), client.getLocalAddress().getHostAddress(), client.getCompletionRate() * 100,
+                    client.getCompletedFrames(), clientLatency.percentile(0.5) / 1e6,
+                    clientLatency.percentile(0.99) / 1e6, clientLatency.getMax() / 1e6,
+                    client.getPacketsReceived(), client.getPacketsDropped(), client.getPacketsReordered(),
+                    client.getNacksSent());
+        }
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Hoàn tất: thấp nhất %.2f%%, p10 %.2f%%, trung vị %.2f%%, trung bình %.2f%%%n",
+                completionAt(sorted, 0) * 100, completionAt(sorted, 0.1) * 100, completionAt(sorted, 0.5) * 100,
+                meanCompletion() * 100);
+        System.out.printf(Locale.ROOT, "Độ trễ (gửi -> ghép xong): p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms (%d frame)%n",
+                latency.percentile(0.5) / 1e6, latency.percentile(0.9) / 1e6, latency.percentile(0.99) / 1e6,
+                latency.percentile(0.999) / 1e6, latency.getMax() / 1e6, latency.getCount());
+        Histogram firstFrame = new Histogram();
+        for (SimulatedClient client : clients) {
+            if (client.getFirstFrameNanos() >= 0) {
+                firstFrame.record(client.getFirstFrameNanos());
+            }
+        }
+        System.out.printf(Locale.ROOT, "Hình đầu tiên (CONNECT -> frame đầu ghép xong, %s): p50 %.1f ms, p99 %.1f ms, max %.1f ms"
+                        + " (%d/%d client), khoảng frame %.1f ms%n",
+                instantJoin ? "có gửi frame khi vào" : "không gửi frame khi vào",
+                firstFrame.percentile(0.5) / 1e6, firstFrame.percentile(0.99) / 1e6, firstFrame.getMax() / 1e6,
+                firstFrame.getCount(), clients.size(), frameRate > 0 ? 1000 / frameRate : 0);
+        // Client chạy chung tiến trình nên CPU tiến trình gồm cả phần nhận; CPU server chỉ tính giải mã và mã hóa
+        System.out.printf(Locale.ROOT, "CPU server (giải mã + mã hóa): %.0f%% | CPU cả tiến trình: %.0f%% trên %d nhân%n",
+                serverCpu, processCpu, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static double completionAt(List<SimulatedClient> sorted, double quantile) {
+        if (sorted.isEmpty()) return 0;
+        int index = (int) Math.min(sorted.size() - 1, Math.floor(quantile * sorted.size()));
+        return sorted.get(index).getCompletionRate();
+    }
+}
@@ -0,0 +1,274 @@
+package com.nguyenquynh;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+// Bộ đo của một server/kênh hoặc client: counter, gauge và histogram.
+// Xuất dạng văn bản Prometheus (qua MetricsEndpoint) và qua JMX dưới dạng DynamicMBean.
+// Histogram ghi theo đơn vị gốc (nano giây, byte) và được nhân với unitScale khi xuất.
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private abstract static class Metric {
+        final String name;
+        final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        abstract String type();
+
+        abstract void write(StringBuilder sb, String labels);
+
+        abstract void attributes(Map<String, Object> target);
+    }
+
+    private static final class CounterMetric extends Metric {
+        final LongSupplier value;
+
+        CounterMetric(String name, String help, LongSupplier value) {
+            super(name, help);
+            this.value = value;
+        }
+
+        String type() {
+            return "counter";
+        }
+
+        void write(StringBuilder sb, String labels) {
+            sb.append(name).append(labels(labels, null)).append(' ').append(value.getAsLong()).append('\n');
+        }
+
+        void attributes(Map<String, Object> target) {
+            target.put(name, value.getAsLong());
+        }
+    }
+
+    private static final class GaugeMetric extends Metric {
+        final DoubleSupplier value;
+
+        GaugeMetric(String name, String help, DoubleSupplier value) {
+            super(name, help);
+            this.value = value;
+        }
+
+        String type() {
+            return "gauge";
+        }
+
+        void write(StringBuilder sb, String labels) {
+            sb.append(name).append(labels(labels, null)).append(' ').append(format(value.getAsDouble())).append('\n');
+        }
+
+        void attributes(Map<String, Object> target) {
+            target.put(name, value.getAsDouble());
+        }
+    }
+
+    private static final class HistogramMetric extends Metric {
+        final Histogram histogram;
+        final double unitScale;
+
+        HistogramMetric(String name, String help, Histogram histogram, double unitScale) {
+            super(name, help);
+            this.histogram = histogram;
+            this.unitScale = unitScale;
+        }
+
+        String type() {
+            return "summary";
+        }
+
+        void write(StringBuilder sb, String labels) {
+            for (double q : QUANTILES) {
+                sb.append(name).append(labels(labels, "quantile=\"" + q + "\"")).append(' ')
+                        .append(format(histogram.percentile(q) * unitScale)).append('\n');
+            }
+            sb.append(name).append("_sum").append(labels(labels, null)).append(' ')
+                    .append(format(histogram.getSum() * unitScale)).append('\n');
+            sb.append(name).append("_count").append(labels(labels, null)).append(' ')
+                    .append(histogram.getCount()).append('\n');
+        }
+
+        void attributes(Map<String, Object> target) {
+            target.put(name + "_count", histogram.getCount());
+            target.put(name + "_p50", histogram.percentile(0.5) * unitScale);
+            target.put(name + "_p99", histogram.percentile(0.99) * unitScale);
+            target.put(name + "_max", histogram.getMax() * unitScale);
+        }
+    }
+
+    private final String labels;
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    // labels: nhãn chung cho mọi dòng, ví dụ channel="phim1"; chuỗi rỗng nếu không có
+    public Metrics(String labels) {
+        this.labels = labels;
+    }
+
+    public static String label(String key, String value) {
+        return key + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    public LongAdder counter(String name, String help) {
+        LongAdder adder = new LongAdder();
+        add(new CounterMetric(name, help, adder::sum));
+        return adder;
+    }
+
+    // Counter đọc từ bộ đếm có sẵn của thành phần, không thêm chi phí trên đường nóng
+    public void counter(String name, String help, LongSupplier value) {
+        add(new CounterMetric(name, help, value));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        add(new GaugeMetric(name, help, value));
+    }
+
+    public Histogram histogram(String name, String help, double unitScale) {
+        Histogram histogram = new Histogram();
+        add(new HistogramMetric(name, help, histogram, unitScale));
+        return histogram;
+    }
+
+    private synchronized void add(Metric metric) {
+        metrics.put(metric.name, metric);
+    }
+
+    private synchronized List<Metric> snapshot() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    // Xuất nhiều bộ đo chung một trang: dòng HELP/TYPE của mỗi tên chỉ ghi một lần
+    public static String render(List<Metrics> registries) {
+        Map<String, List<Metric>> byName = new LinkedHashMap<>();
+        Map<Metric, String> labelsOf = new LinkedHashMap<>();
+        for (Metrics registry : registries) {
+            for (Metric metric : registry.snapshot()) {
+                byName.computeIfAbsent(metric.name, n -> new ArrayList<>()).add(metric);
+                labelsOf.put(metric, registry.labels);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (List<Metric> group : byName.values()) {
+            Metric first = group.get(0);
+            sb.append("# HELP ").append(first.name).append(' ').append(first.help).append('\n');
+            sb.append("# TYPE ").append(first.name).append(' ').append(first.type()).append('\n');
+            for (Metric metric : group) {
+                metric.write(sb, labelsOf.get(metric));
+            }
+        }
+        return sb.toString();
+    }
+
+    // Đăng ký lên MBeanServer của JVM, ví dụ "com.nguyenquynh:type=VideoServer,channel=phim1"
+    public void registerMBean(String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsMBean(), name);
+        } catch (Exception e) {
+            System.err.println("Không thể đăng ký JMX " + objectName + ": " + e.getMessage());
+        }
+    }
+
+    public void unregisterMBean(String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            System.err.println("Không thể hủy đăng ký JMX " + objectName + ": " + e.getMessage());
+        }
+    }
+
+    private Map<String, Object> attributes() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Metric metric : snapshot()) {
+            metric.attributes(values);
+        }
+        return values;
+    }
+
+    // Thuộc tính chỉ đọc, tạo lại từ danh sách bộ đo mỗi lần được hỏi
+    private final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) {
+            return attributes().get(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Bộ đo chỉ đọc");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Object> values = attributes();
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (values.containsKey(name)) {
+                    list.add(new Attribute(name, values.get(name)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : attributes().entrySet()) {
+                infos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Bộ đo video streaming",
+                    infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+
+    private static String labels(String common, String extra) {
+        if (common.isEmpty() && extra == null) {
+            return "";
+        }
+        if (common.isEmpty()) {
+            return "{" + extra + "}";
+        }
+        return extra == null ? "{" + common + "}" : "{" + common + "," + extra + "}";
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+}
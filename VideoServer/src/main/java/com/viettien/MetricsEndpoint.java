@@ -0,0 +1,84 @@
+package com.nguyenquynh;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+// HTTP nhỏ chỉ nghe trên localhost, trả GET /metrics theo định dạng văn bản Prometheus.
+// Một endpoint cho cả JVM; mọi server/kênh/client đăng ký bộ đo của mình vào đây. Endpoint dừng khi bộ đo cuối cùng
+// hủy đăng ký: luồng dispatcher của HttpServer kế thừa daemon của luồng gọi start (luồng FX thì không phải daemon)
+// và sẽ giữ JVM chạy sau khi cửa sổ đã đóng.
+public final class MetricsEndpoint {
+    public static final int DEFAULT_SERVER_PORT = 9464;
+    public static final int DEFAULT_CLIENT_PORT = 9465;
+
+    private static final List<Metrics> registries = new CopyOnWriteArrayList<>();
+    private static HttpServer httpServer;
+
+    private MetricsEndpoint() {
+    }
+
+    public static synchronized void register(Metrics metrics) {
+        registries.add(metrics);
+    }
+
+    public static synchronized void unregister(Metrics metrics) {
+        registries.remove(metrics);
+        if (registries.isEmpty()) {
+            stop();
+        }
+    }
+
+    // Khởi động một lần cho cả JVM; port 0 là tắt. Lỗi bind (cổng đã dùng) chỉ được ghi log
+    public static synchronized void start(int port) {
+        if (httpServer != null || port <= 0) {
+            return;
+        }
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            httpServer.createContext("/metrics", MetricsEndpoint::handle);
+            httpServer.setExecutor(Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "metrics-http");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            httpServer.start();
+            System.out.println("Metrics: http://127.0.0.1:" + port + "/metrics");
+        } catch (IOException e) {
+            httpServer = null;
+            System.err.println("Không thể mở cổng metrics " + port + ": " + e.getMessage());
+        }
+    }
+
+    public static synchronized void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.render(registries).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
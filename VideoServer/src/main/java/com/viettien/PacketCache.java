@@ -0,0 +1,307 @@
+package com.nguyenquynh;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+// File datagram đã mã hóa sẵn của một video, dùng cho phát lặp: các vòng sau đọc thẳng từ vùng nhớ ánh xạ,
+// không giải mã và mã hóa lại. Cache gắn với kích thước và thời điểm sửa của file nguồn, cùng cấu hình lớp/FEC;
+// khác một trong các giá trị này thì coi như không còn hợp lệ.
+//
+// Định dạng (big-endian):
+//   header: magic, version, kích thước nguồn, mtime nguồn, khóa cấu hình (UTF), frameRate, số lớp, số frame,
+//           vị trí bảng chỉ mục, vị trí vùng dữ liệu
+//   chỉ mục: mỗi frame có pts (micro giây) và với mỗi lớp: vị trí, số byte, số datagram
+//   dữ liệu: datagram dạng [độ dài u16][header + payload], số frame trong header để 0 và được ghi lại khi gửi
+public class PacketCache implements AutoCloseable {
+    public static final String EXTENSION = ".vspc";
+    private static final int MAGIC = 0x56535043;
+    private static final int VERSION = 1;
+    // Vùng dữ liệu được ánh xạ theo đoạn 1 GB; một frame của một lớp không bao giờ nằm vắt qua hai đoạn
+    static final long SEGMENT_BYTES = 1L << 30;
+
+    // Một frame đã cắt gói trong file tạm của bộ dựng: pts và [số byte, số datagram] của từng lớp
+    static final class FrameEntry {
+        final long ptsMicros;
+        final int[] lengths;
+        final int[] counts;
+
+        FrameEntry(long ptsMicros, int[] lengths, int[] counts) {
+            this.ptsMicros = ptsMicros;
+            this.lengths = lengths;
+            this.counts = counts;
+        }
+    }
+
+    private final File file;
+    private final File source;
+    private final long sourceSize;
+    private final long sourceModified;
+    private final double frameRate;
+    private final int layerCount;
+    private final long[] pts;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] counts;
+    private final long dataOffset;
+    // Vùng ánh xạ thuộc arena dùng chung để close() bỏ ánh xạ ngay, không chờ GC (Windows không cho thay
+    // file đang được ánh xạ). Luồng gửi phải dừng trước khi đóng, truy cập sau đó ném IllegalStateException
+    private final Arena arena = Arena.ofShared();
+    private MemorySegment[] segments;
+
+    private PacketCache(File file, File source, long sourceSize, long sourceModified, double frameRate, int layerCount,
+                        long[] pts, long[] offsets, int[] lengths, int[] counts, long dataOffset) {
+        this.file = file;
+        this.source = source;
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+        this.frameRate = frameRate;
+        this.layerCount = layerCount;
+        this.pts = pts;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.counts = counts;
+        this.dataOffset = dataOffset;
+    }
+
+    public static File cacheFileFor(String videoPath) {
+        return sidecarFile(videoPath, EXTENSION);
+    }
+
+    // File phụ đặt cạnh file video; thư mục không ghi được thì dùng thư mục tạm
+    static File sidecarFile(String videoPath, String extension) {
+        File video = new File(videoPath).getAbsoluteFile();
+        File parent = video.getParentFile();
+        if (parent != null && parent.canWrite()) {
+            return new File(parent, video.getName() + extension);
+        }
+        String name = video.getName() + "-" + Integer.toHexString(video.getPath().hashCode()) + extension;
+        return new File(System.getProperty("java.io.tmpdir"), name);
+    }
+
+    static String settingsKey(List<StreamLayer> layers, int fecOverhead) {
+        return StreamLayer.format(layers) + "|fec=" + fecOverhead;
+    }
+
+    // Mở cache hợp lệ của video; trả về null nếu chưa có, đã cũ hoặc được dựng với cấu hình khác
+    public static PacketCache open(String videoPath, List<StreamLayer> layers, int fecOverhead) throws IOException {
+        File file = cacheFileFor(videoPath);
+        File source = new File(videoPath);
+        if (!file.isFile() || !source.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long sourceSize = in.readLong();
+            long sourceModified = in.readLong();
+            String key = in.readUTF();
+            if (sourceSize != source.length() || sourceModified != source.lastModified()
+                    || !key.equals(settingsKey(layers, fecOverhead))) {
+                return null;
+            }
+            double frameRate = in.readDouble();
+            int layerCount = in.readInt();
+            int frameCount = in.readInt();
+            in.readLong(); // bảng chỉ mục nằm ngay sau header
+            long dataOffset = in.readLong();
+
+            long[] pts = new long[frameCount];
+            long[] offsets = new long[frameCount * layerCount];
+            int[] lengths = new int[frameCount * layerCount];
+            int[] counts = new int[frameCount * layerCount];
+            for (int frame = 0; frame < frameCount; frame++) {
+                pts[frame] = in.readLong();
+                for (int layer = 0; layer < layerCount; layer++) {
+                    int i = frame * layerCount + layer;
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    counts[i] = in.readInt();
+                }
+            }
+
+            PacketCache cache = new PacketCache(file, source, sourceSize, sourceModified, frameRate, layerCount,
+                    pts, offsets, lengths, counts, dataOffset);
+            cache.map();
+            return cache;
+        } catch (IOException e) {
+            // File hỏng (ví dụ bị cắt cụt) thì dựng lại
+            System.err.println("Cache gói không đọc được, sẽ dựng lại: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            long dataBytes = channel.size() - dataOffset;
+            int segmentCount = (int) ((dataBytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+            segments = new MemorySegment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = dataOffset + i * SEGMENT_BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_BYTES, channel.size() - start), arena);
+            }
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    // Ghi cache từ các đoạn do bộ dựng tạo ra (theo thứ tự thời gian), qua file tạm rồi đổi tên để không bao giờ
+    // để lại cache dở dang
+    static void write(File target, long sourceSize, long sourceModified, String key, double frameRate,
+                      int layerCount, List<File> segmentFiles, List<List<FrameEntry>> segmentEntries) throws IOException {
+        int frameCount = 0;
+        for (List<FrameEntry> entries : segmentEntries) {
+            frameCount += entries.size();
+        }
+
+        File temp = new File(target.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(sourceSize);
+            header.writeLong(sourceModified);
+            header.writeUTF(key);
+            header.writeDouble(frameRate);
+            header.writeInt(layerCount);
+            header.writeInt(frameCount);
+            long indexOffset = headerBytes.size() + 16L;
+            long dataOffset = indexOffset + (long) frameCount * (8 + layerCount * 16L);
+            header.writeLong(indexOffset);
+            header.writeLong(dataOffset);
+            out.write(headerBytes.toByteArray());
+
+            // Chép dữ liệu từng đoạn, chèn khoảng trống khi một frame sẽ vắt qua ranh giới đoạn ánh xạ
+            FileChannel channel = out.getChannel();
+            ByteBuffer index = ByteBuffer.allocate((int) (dataOffset - indexOffset));
+            long position = dataOffset;
+            for (int s = 0; s < segmentFiles.size(); s++) {
+                try (FileChannel in = FileChannel.open(segmentFiles.get(s).toPath())) {
+                    long readPosition = 0;
+                    for (FrameEntry entry : segmentEntries.get(s)) {
+                        index.putLong(entry.ptsMicros);
+                        for (int layer = 0; layer < layerCount; layer++) {
+                            int length = entry.lengths[layer];
+                            long inSegment = (position - dataOffset) % SEGMENT_BYTES;
+                            if (inSegment + length > SEGMENT_BYTES) {
+                                position += SEGMENT_BYTES - inSegment;
+                            }
+                            long copied = 0;
+                            while (copied < length) {
+                                copied += in.transferTo(readPosition + copied, length - copied,
+                                        channel.position(position + copied));
+                            }
+                            index.putLong(position);
+                            index.putInt(length);
+                            index.putInt(entry.counts[layer]);
+                            readPosition += length;
+                            position += length;
+                        }
+                    }
+                }
+            }
+            index.flip();
+            channel.write(index, indexOffset);
+            out.setLength(position);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        replaceFile(temp, target);
+    }
+
+    // Đổi tên file tạm thành target (nguyên tử nếu hệ thống file hỗ trợ); thất bại thì xóa file tạm để không bỏ lại
+    // rác ở mỗi lần chạy. Dùng chung cho các file phụ cạnh video (cache gói, chỉ mục frame)
+    static void replaceFile(File temp, File target) throws IOException {
+        try {
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Ví dụ trên Windows khi file cũ vẫn đang được mở ở nơi khác
+            Files.deleteIfExists(temp.toPath());
+            throw new IOException("Không thể thay file " + target.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    // File nguồn đã bị sửa hoặc thay thế từ lúc dựng cache
+    public boolean isStale() {
+        return source.length() != sourceSize || source.lastModified() != sourceModified;
+    }
+
+    public int getFrameCount() {
+        return pts.length;
+    }
+
+    public int getLayerCount() {
+        return layerCount;
+    }
+
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    public long getPtsMicros(int frame) {
+        return pts[frame];
+    }
+
+    // Frame đầu tiên có pts không nhỏ hơn mốc
+    public int frameAt(long ptsMicros) {
+        int low = 0;
+        int high = pts.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pts[mid] < ptsMicros) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return Math.max(0, low);
+    }
+
+    // Các datagram của một frame ở một lớp, theo định dạng của PacketSender.sendDatagrams
+    public ByteBuffer packets(int frame, int layer) {
+        int i = frame * layerCount + layer;
+        long relative = offsets[i] - dataOffset;
+        MemorySegment segment = segments[(int) (relative / SEGMENT_BYTES)];
+        return segment.asSlice(relative % SEGMENT_BYTES, lengths[i]).asByteBuffer();
+    }
+
+    public int packetCount(int frame, int layer) {
+        return counts[frame * layerCount + layer];
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // Bỏ ánh xạ ngay; gọi nhiều lần không sao
+    @Override
+    public void close() {
+        if (arena.scope().isAlive()) {
+            arena.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.nguyenquynh;
+
+import org.bytedeco.ffmpeg.avformat.AVIndexEntry;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Dựng PacketCache cho một file video: chia file thành các đoạn bắt đầu tại keyframe (theo nhóm GOP),
+// mỗi luồng mở grabber riêng, seek tới đầu đoạn và giải mã, mã hóa JPEG, cắt gói đoạn của mình vào một file tạm.
+// Các đoạn được ghép theo thứ tự thời gian thành file cache.
+public final class PacketCacheBuilder {
+    // Nhiều đoạn hơn số luồng để các luồng xong sớm nhận thêm việc
+    private static final int SEGMENTS_PER_THREAD = 3;
+
+    private final String videoPath;
+    private final List<StreamLayer> layers;
+    private final int fecOverhead;
+    private final int threads;
+    private final ThreadFactory threadFactory;
+
+    public PacketCacheBuilder(String videoPath, List<StreamLayer> layers, int fecOverhead, int threads,
+                              ThreadFactory threadFactory) {
+        this.videoPath = videoPath;
+        this.layers = new ArrayList<>(layers);
+        this.fecOverhead = fecOverhead;
+        this.threads = Math.max(1, threads);
+        this.threadFactory = threadFactory;
+    }
+
+    public PacketCache build() throws IOException, InterruptedException {
+        File source = new File(videoPath);
+        long sourceSize = source.length();
+        long sourceModified = source.lastModified();
+        long startNanos = System.nanoTime();
+
+        double frameRate;
+        long[] bounds;
+        FFmpegFrameGrabber probe = VideoServer.createGrabber(videoPath);
+        try {
+            probe.start();
+            frameRate = probe.getFrameRate();
+            bounds = segmentBounds(probe, threads * SEGMENTS_PER_THREAD);
+            probe.stop();
+            probe.release();
+        } catch (FFmpegFrameGrabber.Exception e) {
+            throw new IOException("Không thể mở video để dựng cache: " + e.getMessage(), e);
+        }
+
+        int segmentCount = bounds.length - 1;
+        List<File> segmentFiles = new ArrayList<>();
+        List<Future<List<PacketCache.FrameEntry>>> results = new ArrayList<>();
+        AtomicInteger workerIndex = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = threadFactory != null ? threadFactory.newThread(task) : new Thread(task);
+            thread.setName("cache-encoder-" + workerIndex.getAndIncrement());
+            return thread;
+        });
+        try {
+            for (int s = 0; s < segmentCount; s++) {
+                File segmentFile = File.createTempFile("vspc-segment-" + s + "-", ".tmp");
+                segmentFile.deleteOnExit();
+                segmentFiles.add(segmentFile);
+                long from = bounds[s];
+                long to = bounds[s + 1];
+                results.add(workers.submit(() -> encodeSegment(from, to, segmentFile)));
+            }
+
+            List<List<PacketCache.FrameEntry>> segmentEntries = new ArrayList<>();
+            for (Future<List<PacketCache.FrameEntry>> result : results) {
+                segmentEntries.add(result.get());
+            }
+
+            File target = PacketCache.cacheFileFor(videoPath);
+            PacketCache.write(target, sourceSize, sourceModified, PacketCache.settingsKey(layers, fecOverhead),
+                    frameRate, layers.size(), segmentFiles, segmentEntries);
+            System.out.printf("Đã dựng cache gói %s: %d đoạn, %.1f giây%n", target.getName(), segmentCount,
+                    (System.nanoTime() - startNanos) / 1e9);
+        } catch (ExecutionException e) {
+            throw new IOException("Lỗi dựng cache gói: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            workers.shutdownNow();
+            for (File segmentFile : segmentFiles) {
+                segmentFile.delete();
+            }
+        }
+
+        return PacketCache.open(videoPath, layers, fecOverhead);
+    }
+
+    // Mốc chia đoạn (micro giây, mốc cuối là vô cực): keyframe gần nhất trước các mốc chia đều theo thời lượng.
+    // Không có chỉ mục keyframe thì chia đều, setTimestamp vẫn đúng nhưng phải giải mã từ keyframe trước đó
+    private static long[] segmentBounds(FFmpegFrameGrabber grabber, int targetSegments) {
+        long length = grabber.getLengthInTime();
+        if (length <= 0 || targetSegments <= 1) {
+            return new long[]{0, Long.MAX_VALUE};
+        }
+
+        AVStream stream = grabber.getFormatContext().streams(grabber.getVideoStream());
+        double timeBase = avutil.av_q2d(stream.time_base());
+        long startPts = stream.start_time() != avutil.AV_NOPTS_VALUE ? stream.start_time() : 0;
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        for (int i = 1; i < targetSegments; i++) {
+            long target = length * i / targetSegments;
+            long targetPts = startPts + (long) (target / 1_000_000.0 / timeBase);
+            AVIndexEntry entry = avformat.avformat_index_get_entry_from_timestamp(stream, targetPts, avformat.AVSEEK_FLAG_BACKWARD);
+            long bound = target;
+            if (entry != null && (entry.flags() & avformat.AVINDEX_KEYFRAME) != 0) {
+                bound = (long) ((entry.timestamp() - startPts) * timeBase * 1_000_000);
+            }
+            if (bound > bounds.get(bounds.size() - 1)) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(Long.MAX_VALUE);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Frame có timestamp trong [from, to) thuộc đoạn này
+    private List<PacketCache.FrameEntry> encodeSegment(long from, long to, File segmentFile) throws IOException {
+        List<PacketCache.FrameEntry> entries = new ArrayList<>();
+        List<JpegEncoder> encoders = new ArrayList<>();
+        for (int i = 0; i < layers.size(); i++) {
+            encoders.add(new JpegEncoder());
+        }
+
+        FFmpegFrameGrabber grabber = VideoServer.createGrabber(videoPath);
+        Java2DFrameConverter converter = new Java2DFrameConverter();
+        ByteArrayOutputStream packetBytes = new ByteArrayOutputStream(256 * 1024);
+        DataOutputStream packets = new DataOutputStream(packetBytes);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile), 1 << 20))) {
+            grabber.start();
+            if (from > 0) {
+                grabber.setTimestamp(from);
+            }
+
+            Frame frame;
+            while (!Thread.currentThread().isInterrupted() && (frame = grabber.grabImage()) != null) {
+                if (frame.timestamp < from) {
+                    continue;
+                }
+                if (frame.timestamp >= to) {
+                    break;
+                }
+
+                BufferedImage image = converter.convert(frame);
+                int[] lengths = new int[layers.size()];
+                int[] counts = new int[layers.size()];
+                for (int i = 0; i < layers.size(); i++) {
+                    StreamLayer layer = layers.get(i);
+                    byte[] jpeg = encoders.get(i).encode(image, layer.getQuality(), layer.getScale());
+                    packetBytes.reset();
+                    counts[i] = PacketSender.writeDatagrams(jpeg, jpeg.length, StreamProtocol.PAYLOAD_JPEG,
+                            fecOverhead, packets);
+                    lengths[i] = packetBytes.size();
+                    packetBytes.writeTo(out);
+                }
+                entries.add(new PacketCache.FrameEntry(frame.timestamp, lengths, counts));
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // Đoạn dở dang không được ghép vào cache
+                throw new InterruptedIOException("Dừng dựng cache");
+            }
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (FFmpegFrameGrabber.Exception e) {
+                System.err.println("Lỗi khi đóng grabber: " + e.getMessage());
+            }
+            for (JpegEncoder encoder : encoders) {
+                encoder.close();
+            }
+        }
+        return entries;
+    }
+}
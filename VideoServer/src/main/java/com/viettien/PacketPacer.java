@@ -0,0 +1,78 @@
+package com.nguyenquynh;
+
+// Điều tiết tốc độ gửi: rải các gói của một frame đều trong khoảng thời gian của frame
+// và giới hạn băng thông bằng token bucket (bitrate = 0 nghĩa là không giới hạn)
+public class PacketPacer {
+    // Chỉ dùng một phần khoảng frame để còn dư thời gian cho frame sau
+    private static final double SPREAD_RATIO = 0.8;
+    // Cho phép gửi dồn tối đa 10 ms dữ liệu
+    private static final double BURST_SECONDS = 0.01;
+
+    private volatile long bitrate;
+    private volatile long frameIntervalNanos;
+
+    private double tokens;
+    private long lastRefillNanos;
+    private long frameStartNanos;
+    private long packetGapNanos;
+    private Histogram lagHistogram;
+
+    public PacketPacer(long bitrate, double frameRate) {
+        setBitrate(bitrate);
+        setFrameRate(frameRate);
+        lastRefillNanos = System.nanoTime();
+    }
+
+    public void setBitrate(long bitrate) {
+        this.bitrate = Math.max(0, bitrate);
+    }
+
+    public long getBitrate() {
+        return bitrate;
+    }
+
+    public void setFrameRate(double frameRate) {
+        this.frameIntervalNanos = frameRate > 0 ? (long) (1_000_000_000L / frameRate) : 0;
+    }
+
+    // Độ trễ thực tế so với lịch gửi của từng gói (ns)
+    public void setLagHistogram(Histogram lagHistogram) {
+        this.lagHistogram = lagHistogram;
+    }
+
+    public void beginFrame(int numPackets) {
+        frameStartNanos = System.nanoTime();
+        packetGapNanos = numPackets > 1 ? (long) (frameIntervalNanos * SPREAD_RATIO / numPackets) : 0;
+    }
+
+    // Chờ tới lượt gửi gói thứ index (kích thước bytes) của frame hiện tại
+    public void awaitPacket(int index, int bytes) throws InterruptedException {
+        long due = frameStartNanos + index * packetGapNanos;
+
+        long rate = bitrate;
+        if (rate > 0) {
+            long now = System.nanoTime();
+            refill(now, rate);
+            if (tokens < bytes) {
+                long waitNanos = (long) ((bytes - tokens) * 8_000_000_000.0 / rate);
+                due = Math.max(due, now + waitNanos);
+            }
+        }
+
+        PresentationClock.sleepNanos(due - System.nanoTime());
+        if (lagHistogram != null) {
+            lagHistogram.record(System.nanoTime() - due);
+        }
+
+        if (rate > 0) {
+            refill(System.nanoTime(), rate);
+            tokens -= bytes;
+        }
+    }
+
+    private void refill(long now, long rate) {
+        double capacity = Math.max(rate / 8.0 * BURST_SECONDS, StreamProtocol.PACKET_SIZE + StreamProtocol.HEADER_SIZE);
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * rate / 8_000_000_000.0);
+        lastRefillNanos = now;
+    }
+}
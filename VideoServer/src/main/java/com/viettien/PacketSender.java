@@ -0,0 +1,230 @@
+package com.nguyenquynh;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cắt frame thành datagram và gửi qua DatagramChannel.
+// Header được ghi thẳng vào direct buffer lấy từ pool, payload chỉ chép một lần,
+// địa chỉ đích được cache nên không có cấp phát heap cho mỗi gói ở trạng thái ổn định.
+// send/sendDatagrams chỉ được gọi từ một luồng gửi của lớp tại một thời điểm (luồng cũ được join trước khi luồng
+// mới bắt đầu): buffer parity, LatestFrame và bộ điều tốc đều không an toàn khi gửi song song.
+// Các setter cấu hình (trừ FEC và LatestFrame) phải gọi trước khi bắt đầu gửi.
+public class PacketSender {
+    private static final int POOL_CAPACITY = 64;
+
+    private final DatagramChannel channel;
+    private final InetSocketAddress target;
+    private final DirectBufferPool bufferPool;
+    // Dùng lại cho mọi frame; chỉ luồng gửi của lớp dùng tới
+    private final byte[] parity = new byte[StreamProtocol.PARITY_PAYLOAD_SIZE];
+    private volatile int fecBlockSize = 0;
+    private RetransmitCache retransmitCache;
+    private UnicastFanout fanout;
+    private int fanoutLayer;
+    private final LatestFrame latestFrame = new LatestFrame();
+    // Chỉ giữ frame gần nhất khi server bật vào nhanh; đọc một lần đầu mỗi frame để cả frame dùng cùng một giá trị
+    private volatile boolean keepLatestFrame = true;
+    private boolean keepingLatestFrame;
+    private final AtomicLong packetsSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public PacketSender(DatagramChannel channel, InetSocketAddress target) {
+        this.channel = channel;
+        this.target = target;
+        this.bufferPool = new DirectBufferPool(StreamProtocol.MAX_DATAGRAM_SIZE, POOL_CAPACITY);
+    }
+
+    // Một datagram sau khi cắt: gói dữ liệu thứ index, hoặc gói parity của block index
+    private interface PacketHandler {
+        void packet(int frameNumber, PacketPacer pacer, int index, int numPackets, int flags,
+                    byte[] data, int offset, int length, int slot) throws IOException, InterruptedException;
+    }
+
+    // Tạo một lần: lambda bắt frameNumber/pacer sẽ cấp phát mỗi frame
+    private final PacketHandler packetHandler = this::sendPacket;
+
+    public void send(byte[] frameData, int frameLength, int frameNumber, int flags, PacketPacer pacer)
+            throws IOException, InterruptedException {
+        int blockSize = fecBlockSize;
+        pacer.beginFrame(datagramCount(frameLength, blockSize));
+        keepingLatestFrame = keepLatestFrame;
+        if (keepingLatestFrame) {
+            latestFrame.begin(flags);
+        }
+        packetize(frameData, frameLength, frameNumber, flags, blockSize, parity, pacer, packetHandler);
+        if (keepingLatestFrame) {
+            latestFrame.commit(frameNumber);
+        }
+    }
+
+    // Gửi các datagram đã cắt sẵn (PacketCache): mỗi gói là [độ dài u16][header + payload], số frame được ghi lại
+    public void sendDatagrams(ByteBuffer datagrams, int count, int frameNumber, PacketPacer pacer)
+            throws IOException, InterruptedException {
+        pacer.beginFrame(count);
+        int position = datagrams.position();
+        keepingLatestFrame = keepLatestFrame;
+        if (keepingLatestFrame && count > 0) {
+            latestFrame.begin(datagrams.getInt(position + 2 + 12));
+        }
+        for (int slot = 0; slot < count; slot++) {
+            int length = datagrams.getShort(position) & 0xFFFF;
+            ByteBuffer buffer = bufferPool.acquire();
+            try {
+                buffer.put(0, datagrams, position + 2, length);
+                buffer.limit(length);
+                buffer.putInt(0, frameNumber);
+                transmit(buffer, frameNumber, buffer.getInt(4), buffer.getInt(12), pacer, slot);
+            } finally {
+                bufferPool.release(buffer);
+            }
+            position += 2 + length;
+        }
+        if (keepingLatestFrame) {
+            latestFrame.commit(frameNumber);
+        }
+    }
+
+    // Gửi frame hoàn chỉnh gần nhất của lớp thẳng tới một client (không qua bộ điều tốc), để client mới vào có
+    // hình ngay; trả về bản sao đã gửi, hoặc null nếu chưa có frame nào
+    public LatestFrame.Snapshot sendLatestFrame(InetSocketAddress client) throws IOException {
+        LatestFrame.Snapshot snapshot = latestFrame.snapshot();
+        if (snapshot == null) {
+            return null;
+        }
+        ByteBuffer datagrams = ByteBuffer.wrap(snapshot.data);
+        int position = 0;
+        for (int i = 0; i < snapshot.count; i++) {
+            int length = datagrams.getShort(position) & 0xFFFF;
+            bytesSent.addAndGet(channel.send(datagrams.slice(position + 2, length), client));
+            packetsSent.incrementAndGet();
+            position += 2 + length;
+        }
+        return snapshot;
+    }
+
+    // Cắt frame thành datagram với số frame 0 và ghi ra out theo định dạng của sendDatagrams; trả về số gói
+    public static int writeDatagrams(byte[] frameData, int frameLength, int flags, int fecOverheadPercent,
+                                     DataOutput out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(StreamProtocol.MAX_DATAGRAM_SIZE);
+        int blockSize = FecCodec.blockSize(fecOverheadPercent);
+        try {
+            packetize(frameData, frameLength, 0, flags, blockSize, new byte[StreamProtocol.PARITY_PAYLOAD_SIZE], null,
+                    (frameNumber, pacer, index, numPackets, packetFlags, data, offset, length, slot) -> {
+                        buffer.clear();
+                        StreamProtocol.writeHeader(buffer, 0, index, numPackets, packetFlags);
+                        buffer.put(data, offset, length);
+                        out.writeShort(buffer.position());
+                        out.write(buffer.array(), 0, buffer.position());
+                    });
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        return datagramCount(frameLength, blockSize);
+    }
+
+    private static int datagramCount(int frameLength, int blockSize) {
+        int numPackets = StreamProtocol.packetCount(frameLength);
+        return numPackets + (blockSize > 0 ? (numPackets + blockSize - 1) / blockSize : 0);
+    }
+
+    private static void packetize(byte[] frameData, int frameLength, int frameNumber, int flags, int blockSize,
+                                  byte[] parity, PacketPacer pacer, PacketHandler handler)
+            throws IOException, InterruptedException {
+        int numPackets = StreamProtocol.packetCount(frameLength);
+        int slot = 0;
+        for (int i = 0; i < numPackets; i++) {
+            int start = i * StreamProtocol.PACKET_SIZE;
+            int length = Math.min(StreamProtocol.PACKET_SIZE, frameLength - start);
+
+            if (blockSize > 0) {
+                if (i % blockSize == 0) {
+                    FecCodec.clear(parity);
+                }
+                FecCodec.accumulate(parity, frameData, start, length);
+            }
+
+            handler.packet(frameNumber, pacer, i, numPackets, flags, frameData, start, length, slot++);
+
+            // Hết block (hoặc hết frame) thì gửi gói parity của block
+            if (blockSize > 0 && (i % blockSize == blockSize - 1 || i == numPackets - 1)) {
+                handler.packet(frameNumber, pacer, i / blockSize, numPackets,
+                        StreamProtocol.parityFlags(flags, blockSize), parity, 0, parity.length, slot++);
+            }
+        }
+    }
+
+    private void sendPacket(int frameNumber, PacketPacer pacer, int index, int numPackets, int flags,
+                            byte[] data, int offset, int length, int slot) throws IOException, InterruptedException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            StreamProtocol.writeHeader(buffer, frameNumber, index, numPackets, flags);
+            buffer.put(data, offset, length);
+            buffer.flip();
+            transmit(buffer, frameNumber, index, flags, pacer, slot);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    // buffer: datagram đã flip, lưu vào bộ đệm gửi lại rồi gửi theo lịch của bộ điều tốc
+    private void transmit(ByteBuffer buffer, int frameNumber, int index, int flags, PacketPacer pacer, int slot)
+            throws IOException, InterruptedException {
+        if (retransmitCache != null && !StreamProtocol.isParity(flags)) {
+            retransmitCache.store(frameNumber, index, buffer);
+        }
+        if (keepingLatestFrame) {
+            latestFrame.append(buffer);
+        }
+
+        pacer.awaitPacket(slot, buffer.remaining());
+        if (fanout != null) {
+            bytesSent.addAndGet(fanout.send(fanoutLayer, buffer));
+        } else {
+            bytesSent.addAndGet(channel.send(buffer, target));
+        }
+        packetsSent.incrementAndGet();
+    }
+
+    // Tỉ lệ gói parity trên gói dữ liệu (%), có thể đổi khi đang phát
+    public void setFecOverhead(int percent) {
+        fecBlockSize = FecCodec.blockSize(percent);
+    }
+
+    // Tắt thì không chép datagram vào LatestFrame nữa và bỏ frame đang giữ
+    public void setKeepLatestFrame(boolean keepLatestFrame) {
+        this.keepLatestFrame = keepLatestFrame;
+        if (!keepLatestFrame) {
+            latestFrame.clear();
+        }
+    }
+
+    public void setRetransmitCache(RetransmitCache retransmitCache) {
+        this.retransmitCache = retransmitCache;
+    }
+
+    // Chế độ unicast: gói được gửi tới các client đã đăng ký lớp này thay vì nhóm multicast
+    public void setFanout(UnicastFanout fanout, int layerId) {
+        this.fanout = fanout;
+        this.fanoutLayer = layerId;
+    }
+
+    public InetSocketAddress getTarget() {
+        return target;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+}
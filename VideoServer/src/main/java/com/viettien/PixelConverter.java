@@ -0,0 +1,52 @@
+package com.nguyenquynh;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+
+// Chép điểm ảnh của BufferedImage sang buffer BGRA (alpha = 255) dùng cho PixelBuffer
+public final class PixelConverter {
+    // Bộ đệm một hàng cho đường chậm, mỗi luồng một bộ (luồng giải mã, luồng ghép ô, luồng phát của server)
+    private static final ThreadLocal<int[]> ROW = ThreadLocal.withInitial(() -> new int[0]);
+
+    private PixelConverter() {
+    }
+
+    public static void copyToBgra(BufferedImage image, ByteBuffer pixels) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            // Đường nhanh: ảnh từ JPEG và từ Java2DFrameConverter đều là BGR 3 byte
+            byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            int target = 0;
+            for (int source = 0; source < width * height * 3; source += 3) {
+                pixels.put(target, bgr[source]);
+                pixels.put(target + 1, bgr[source + 1]);
+                pixels.put(target + 2, bgr[source + 2]);
+                pixels.put(target + 3, (byte) 0xFF);
+                target += 4;
+            }
+            return;
+        }
+
+        // Đọc cả hàng một lần: getRGB từng điểm ảnh phải đi qua ColorModel cho mỗi lần gọi
+        int[] row = ROW.get();
+        if (row.length < width) {
+            row = new int[width];
+            ROW.set(row);
+        }
+        int target = 0;
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                pixels.put(target, (byte) argb);
+                pixels.put(target + 1, (byte) (argb >> 8));
+                pixels.put(target + 2, (byte) (argb >> 16));
+                pixels.put(target + 3, (byte) 0xFF);
+                target += 4;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.nguyenquynh;
+
+import java.util.concurrent.TimeUnit;
+
+// Đồng hồ trình chiếu: ánh xạ timestamp của nguồn (micro giây) sang thời gian thực.
+// Mốc được tính tuyệt đối từ frame đầu nên sai số của sleep không bị cộng dồn.
+public class PresentationClock {
+    // Lệch quá ngưỡng này (lặp lại video, tạm dừng, seek) thì đồng bộ lại mốc
+    private static final long RESYNC_THRESHOLD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private long baseWallNanos = -1;
+    private long basePtsMicros;
+    private double speed = 1.0;
+
+    public void reset() {
+        baseWallNanos = -1;
+    }
+
+    public void setSpeed(double speed) {
+        this.speed = speed;
+        reset();
+    }
+
+    // Số nano giây còn phải chờ trước khi phát frame; giá trị âm nghĩa là frame đã trễ
+    public long delayNanos(long ptsMicros) {
+        long now = System.nanoTime();
+        if (baseWallNanos < 0) {
+            resync(now, ptsMicros);
+            return 0;
+        }
+
+        long target = baseWallNanos + (long) ((ptsMicros - basePtsMicros) * 1000 / speed);
+        long delay = target - now;
+        if (delay > RESYNC_THRESHOLD_NANOS || delay < -RESYNC_THRESHOLD_NANOS) {
+            resync(now, ptsMicros);
+            return 0;
+        }
+        return delay;
+    }
+
+    private void resync(long now, long ptsMicros) {
+        baseWallNanos = now;
+        basePtsMicros = ptsMicros;
+    }
+
+    public static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.nguyenquynh;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Điều chỉnh chất lượng JPEG, độ phân giải và tốc độ khung hình theo báo cáo của client.
+// Mức chất lượng (0..1) giảm nhanh khi mạng tắc nghẽn và tăng chậm khi ổn định,
+// để luồng phát xuống cấp dần thay vì mất cả frame. Chỉ lớp gốc được điều chỉnh, nên chỉ báo cáo của client
+// đang xem lớp gốc được tính: client yếu đã chuyển xuống lớp thấp không kéo chất lượng lớp gốc xuống theo.
+public class QualityController implements EncodePipeline.EncodeSettings {
+    // Báo cáo cũ hơn ngưỡng này không được tính
+    private static final long REPORT_TIMEOUT_NANOS = 5_000_000_000L;
+    private static final double HIGH_LOSS_PERCENT = 5.0;
+    private static final double LOW_LOSS_PERCENT = 1.0;
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final double INCREASE_STEP = 0.05;
+    private static final int STABLE_INTERVALS_BEFORE_INCREASE = 3;
+    private static final long LATE_PACKETS_THRESHOLD = 5;
+    private static final int ADAPTED_LAYER = 0;
+
+    public static final class Report {
+        final double lossPercent;
+        final double frameLossPercent;
+        final long latePackets;
+        final double decodeMillis;
+        final int layerId;
+        final long receivedNanos;
+
+        Report(double lossPercent, double frameLossPercent, long latePackets, double decodeMillis, int layerId) {
+            this.lossPercent = lossPercent;
+            this.frameLossPercent = frameLossPercent;
+            this.latePackets = latePackets;
+            this.decodeMillis = decodeMillis;
+            this.layerId = layerId;
+            this.receivedNanos = System.nanoTime();
+        }
+    }
+
+    private final Map<InetAddress, Report> reports = new ConcurrentHashMap<>();
+
+    private volatile float minQuality = 0.3f;
+    private volatile float maxQuality = 0.85f;
+    private volatile double minScale = 0.5;
+    private volatile double minFrameRatio = 0.5;
+
+    private double level = 1.0;
+    private int stableIntervals = 0;
+
+    private volatile float quality = maxQuality;
+    private volatile double scale = 1.0;
+    private volatile double frameRatio = 1.0;
+
+    public void setBounds(float minQuality, float maxQuality, double minScale, double minFrameRatio) {
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+        this.minScale = minScale;
+        this.minFrameRatio = minFrameRatio;
+        apply();
+    }
+
+    // Định dạng: "loss=1.5 frames=0.0 late=2 decode=8.3"; layerId là lớp client đang xem (-1 nếu chưa rõ).
+    // Trả về báo cáo đã phân tích để lưu vào phiên
+    public Report onReport(InetAddress client, int layerId, String payload) {
+        double loss = 0;
+        double frameLoss = 0;
+        long late = 0;
+        double decode = 0;
+        for (String field : payload.trim().split(" ")) {
+            int eq = field.indexOf('=');
+            if (eq <= 0) continue;
+            try {
+                String value = field.substring(eq + 1);
+                switch (field.substring(0, eq)) {
+                    case "loss": loss = Double.parseDouble(value); break;
+                    case "frames": frameLoss = Double.parseDouble(value); break;
+                    case "late": late = Long.parseLong(value); break;
+                    case "decode": decode = Double.parseDouble(value); break;
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Báo cáo không hợp lệ: " + field);
+            }
+        }
+        Report report = new Report(loss, frameLoss, late, decode, layerId);
+        reports.put(client, report);
+        return report;
+    }
+
+    public void removeClient(InetAddress client) {
+        reports.remove(client);
+    }
+
+    // Gọi định kỳ (mỗi giây) từ luồng phát; frameIntervalMillis dùng để so với thời gian giải mã của client
+    public synchronized void update(double frameIntervalMillis) {
+        long now = System.nanoTime();
+        double worstLoss = 0;
+        boolean congested = false;
+        for (Report report : reports.values()) {
+            if (now - report.receivedNanos > REPORT_TIMEOUT_NANOS || report.layerId != ADAPTED_LAYER) continue;
+            double loss = Math.max(report.lossPercent, report.frameLossPercent);
+            worstLoss = Math.max(worstLoss, loss);
+            // Client giải mã không kịp cũng là dấu hiệu phải giảm tải
+            if (report.latePackets > LATE_PACKETS_THRESHOLD || report.decodeMillis > frameIntervalMillis) {
+                congested = true;
+            }
+        }
+
+        if (worstLoss > HIGH_LOSS_PERCENT || congested) {
+            level *= DECREASE_FACTOR;
+            stableIntervals = 0;
+        } else if (worstLoss < LOW_LOSS_PERCENT) {
+            if (++stableIntervals >= STABLE_INTERVALS_BEFORE_INCREASE) {
+                level = Math.min(1.0, level + INCREASE_STEP);
+            }
+        } else {
+            stableIntervals = 0;
+        }
+        apply();
+    }
+
+    private void apply() {
+        // Giảm chất lượng JPEG trước, sau đó mới giảm độ phân giải, cuối cùng là tốc độ khung hình
+        double qualityLevel = Math.min(1.0, level / 0.6);
+        double scaleLevel = Math.max(0, Math.min(1.0, (level - 0.2) / 0.4));
+        double frameLevel = Math.min(1.0, level / 0.2);
+
+        quality = (float) (minQuality + (maxQuality - minQuality) * qualityLevel);
+        scale = minScale + (1.0 - minScale) * scaleLevel;
+        frameRatio = minFrameRatio + (1.0 - minFrameRatio) * frameLevel;
+    }
+
+    @Override
+    public float getQuality() {
+        return quality;
+    }
+
+    @Override
+    public double getScale() {
+        return scale;
+    }
+
+    // Tỉ lệ frame được gửi so với nguồn (1.0 = đủ khung hình)
+    public double getFrameRatio() {
+        return frameRatio;
+    }
+}
@@ -0,0 +1,32 @@
+package com.nguyenquynh;
+
+// Token bucket đếm theo số lần (gói), không chặn: hết token thì từ chối ngay
+public class RateLimiter {
+    private final double ratePerSecond;
+    private final double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public RateLimiter(double ratePerSecond, double burst) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ratePerSecond / 1_000_000_000.0);
+        lastRefillNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    // Trả lại token vừa lấy khi thao tác bị từ chối ở bước sau (ví dụ bởi giới hạn toàn cục)
+    public synchronized void refund() {
+        tokens = Math.min(burst, tokens + 1);
+    }
+}
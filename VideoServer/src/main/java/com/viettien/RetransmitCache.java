@@ -0,0 +1,62 @@
+package com.nguyenquynh;
+
+import java.nio.ByteBuffer;
+
+// Vòng đệm cố định chứa các datagram dữ liệu vừa gửi để gửi lại khi client báo NACK.
+// Gói của một frame nằm liên tiếp trong vòng đệm nên tra cứu chỉ cần vị trí gói đầu tiên.
+public class RetransmitCache {
+    private static final int FRAME_SLOTS = 256;
+
+    private final int capacity;
+    private final byte[][] packets;
+    private final int[] lengths;
+    private long nextSequence = 0;
+
+    private final int[] frameNumbers = new int[FRAME_SLOTS];
+    private final long[] frameStarts = new long[FRAME_SLOTS];
+    private final int[] frameCounts = new int[FRAME_SLOTS];
+
+    public RetransmitCache(int capacity) {
+        this.capacity = capacity;
+        this.packets = new byte[capacity][StreamProtocol.MAX_DATAGRAM_SIZE];
+        this.lengths = new int[capacity];
+        java.util.Arrays.fill(frameNumbers, -1);
+    }
+
+    // datagram: buffer đã flip, vị trí 0..limit là header + payload
+    public synchronized void store(int frameNumber, int packetIndex, ByteBuffer datagram) {
+        int frameSlot = Math.floorMod(frameNumber, FRAME_SLOTS);
+        if (packetIndex == 0 || frameNumbers[frameSlot] != frameNumber) {
+            frameNumbers[frameSlot] = frameNumber;
+            frameStarts[frameSlot] = nextSequence - packetIndex;
+            frameCounts[frameSlot] = 0;
+        }
+        if (frameStarts[frameSlot] + packetIndex != nextSequence) {
+            return; // Gói không liên tiếp, bỏ qua để không trả nhầm dữ liệu
+        }
+
+        int slot = (int) (nextSequence % capacity);
+        int length = datagram.limit();
+        datagram.get(0, packets[slot], 0, length);
+        lengths[slot] = length;
+        frameCounts[frameSlot] = packetIndex + 1;
+        nextSequence++;
+    }
+
+    // Chép datagram đã lưu vào target; trả về false nếu gói đã bị ghi đè hoặc chưa từng lưu
+    public synchronized boolean copyTo(int frameNumber, int packetIndex, ByteBuffer target) {
+        int frameSlot = Math.floorMod(frameNumber, FRAME_SLOTS);
+        if (frameNumbers[frameSlot] != frameNumber || packetIndex < 0 || packetIndex >= frameCounts[frameSlot]) {
+            return false;
+        }
+        long sequence = frameStarts[frameSlot] + packetIndex;
+        if (sequence < nextSequence - capacity) {
+            return false;
+        }
+
+        int slot = (int) (sequence % capacity);
+        target.put(packets[slot], 0, lengths[slot]);
+        target.flip();
+        return true;
+    }
+}
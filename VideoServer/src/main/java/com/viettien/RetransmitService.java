@@ -0,0 +1,134 @@
+package com.nguyenquynh;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Xử lý NACK từ client: gửi lại gói bằng unicast từ RetransmitCache của lớp simulcast tương ứng,
+// giới hạn tốc độ theo từng client và toàn server
+public class RetransmitService {
+    private static final int CACHE_PACKETS = 4096;
+    private static final double CLIENT_RATE = 500;
+    private static final double GLOBAL_RATE = 5000;
+
+    private final DatagramChannel channel;
+    private final DirectBufferPool bufferPool;
+    private final Map<Integer, RetransmitCache> caches = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> videoPorts = new ConcurrentHashMap<>();
+    private final RateLimiter globalLimiter = new RateLimiter(GLOBAL_RATE, GLOBAL_RATE / 10);
+    private final Map<InetAddress, RateLimiter> clientLimiters = new ConcurrentHashMap<>();
+
+    private final AtomicLong nacksReceived = new AtomicLong();
+    private final AtomicLong packetsRequested = new AtomicLong();
+    private final AtomicLong packetsResent = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    public RetransmitService(DatagramChannel channel, DirectBufferPool bufferPool) {
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+    }
+
+    // Mỗi lớp có cache riêng; gói gửi lại đi tới cổng video của lớp đó trên client
+    public RetransmitCache addLayer(int layerId, int videoPort) {
+        RetransmitCache cache = new RetransmitCache(CACHE_PACKETS);
+        caches.put(layerId, cache);
+        videoPorts.put(layerId, videoPort);
+        return cache;
+    }
+
+    // Định dạng: "layer frame:idx,idx;frame:idx". Chỉ gọi cho client đã có phiên: gói gửi lại đi tới địa chỉ nguồn
+    // của NACK, nên NACK giả mạo địa chỉ sẽ biến server thành nguồn dội gói, và bộ giới hạn sẽ tăng không giới hạn
+    public void handleNack(String payload, InetAddress clientAddress) {
+        nacksReceived.incrementAndGet();
+        String[] parts = payload.trim().split(" ", 2);
+        int layerId;
+        try {
+            layerId = parts.length == 2 ? Integer.parseInt(parts[0]) : -1;
+        } catch (NumberFormatException e) {
+            layerId = -1;
+        }
+        RetransmitCache cache = caches.get(layerId);
+        if (cache == null) {
+            System.err.println("NACK không hợp lệ: " + payload);
+            return;
+        }
+
+        RateLimiter clientLimiter = clientLimiters.computeIfAbsent(clientAddress,
+                a -> new RateLimiter(CLIENT_RATE, CLIENT_RATE / 10));
+        InetSocketAddress target = new InetSocketAddress(clientAddress, videoPorts.get(layerId));
+
+        for (String frameEntry : parts[1].split(";")) {
+            int colon = frameEntry.indexOf(':');
+            if (colon <= 0) continue;
+
+            try {
+                int frameNumber = Integer.parseInt(frameEntry.substring(0, colon));
+                for (String index : frameEntry.substring(colon + 1).split(",")) {
+                    if (index.isEmpty()) continue;
+                    packetsRequested.incrementAndGet();
+                    resend(cache, frameNumber, Integer.parseInt(index), target, clientLimiter);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("NACK không hợp lệ: " + frameEntry);
+            }
+        }
+    }
+
+    private void resend(RetransmitCache cache, int frameNumber, int packetIndex, InetSocketAddress target,
+                        RateLimiter clientLimiter) {
+        if (!clientLimiter.tryAcquire()) {
+            rateLimited.incrementAndGet();
+            return;
+        }
+        if (!globalLimiter.tryAcquire()) {
+            // Gói không được gửi thì không tính vào hạn mức của client
+            clientLimiter.refund();
+            rateLimited.incrementAndGet();
+            return;
+        }
+
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            if (!cache.copyTo(frameNumber, packetIndex, buffer)) {
+                cacheMisses.incrementAndGet();
+                return;
+            }
+            channel.send(buffer, target);
+            packetsResent.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("Lỗi gửi lại gói: " + e.getMessage());
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    public void removeClient(InetAddress clientAddress) {
+        clientLimiters.remove(clientAddress);
+    }
+
+    public long getNacksReceived() {
+        return nacksReceived.get();
+    }
+
+    public long getPacketsRequested() {
+        return packetsRequested.get();
+    }
+
+    public long getPacketsResent() {
+        return packetsResent.get();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+}
@@ -0,0 +1,129 @@
+package com.nguyenquynh;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Bảng phiên client theo địa chỉ, an toàn cho truy cập đồng thời.
+// Phiên không gửi gì (heartbeat, REPORT, NACK...) quá thời hạn sẽ hết hạn qua một timer wheel:
+// heartbeat chỉ ghi lại thời điểm, việc kiểm tra dồn vào ô của wheel nên chi phí không phụ thuộc số client.
+public class SessionRegistry {
+    public interface Listener {
+        void onSessionStart(ClientSession session);
+
+        void onSessionEnd(ClientSession session, boolean expired);
+    }
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 64;
+
+    private final Map<InetAddress, ClientSession> sessions = new ConcurrentHashMap<>();
+    private final Set<ClientSession>[] wheel;
+    private final long timeoutNanos;
+    private final int timeoutTicks;
+    private final Listener listener;
+    private volatile long tick = 0;
+    private ScheduledExecutorService timer;
+
+    @SuppressWarnings("unchecked")
+    public SessionRegistry(long timeoutMillis, Listener listener) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.timeoutTicks = (int) Math.max(1, Math.min(WHEEL_SIZE - 1, (timeoutMillis + TICK_MILLIS - 1) / TICK_MILLIS));
+        this.listener = listener;
+        this.wheel = new Set[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    public void start(ThreadFactory threadFactory) {
+        timer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        timer.scheduleAtFixedRate(this::advance, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    // CONNECT hoặc HEARTBEAT: tạo phiên nếu chưa có (ví dụ client còn chạy khi server khởi động lại)
+    public ClientSession connect(InetAddress address, int controlPort) {
+        boolean[] created = {false};
+        ClientSession session = sessions.computeIfAbsent(address, a -> {
+            created[0] = true;
+            return new ClientSession(a, controlPort);
+        });
+        session.setControlPort(controlPort);
+        session.touch();
+        if (created[0]) {
+            schedule(session, timeoutTicks);
+            listener.onSessionStart(session);
+        }
+        return session;
+    }
+
+    // Mọi tin điều khiển khác chỉ gia hạn phiên đã có; trả về null nếu client chưa kết nối
+    public ClientSession touch(InetAddress address) {
+        ClientSession session = sessions.get(address);
+        if (session != null) {
+            session.touch();
+        }
+        return session;
+    }
+
+    public void disconnect(InetAddress address) {
+        ClientSession session = sessions.remove(address);
+        if (session != null) {
+            listener.onSessionEnd(session, false);
+        }
+    }
+
+    public ClientSession get(InetAddress address) {
+        return sessions.get(address);
+    }
+
+    public Collection<ClientSession> getSessions() {
+        return sessions.values();
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void schedule(ClientSession session, long ticks) {
+        wheel[(int) ((tick + ticks) % WHEEL_SIZE)].add(session);
+    }
+
+    // Xử lý ô hiện tại: phiên còn hoạt động được xếp lại vào ô ứng với hạn mới, phiên im lặng bị loại
+    private void advance() {
+        try {
+            long current = ++tick;
+            Set<ClientSession> bucket = wheel[(int) (current % WHEEL_SIZE)];
+            long now = System.nanoTime();
+            for (ClientSession session : bucket) {
+                bucket.remove(session);
+                if (sessions.get(session.getAddress()) != session) {
+                    continue;
+                }
+
+                long remaining = session.getLastSeenNanos() + timeoutNanos - now;
+                if (remaining > 0) {
+                    long ticks = (TimeUnit.NANOSECONDS.toMillis(remaining) + TICK_MILLIS - 1) / TICK_MILLIS;
+                    schedule(session, Math.max(1, Math.min(WHEEL_SIZE - 1, ticks)));
+                } else if (sessions.remove(session.getAddress(), session)) {
+                    listener.onSessionEnd(session, true);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Lỗi trong listener không được làm dừng timer
+            System.err.println("Lỗi xử lý hết hạn phiên: " + e.getMessage());
+        }
+    }
+}
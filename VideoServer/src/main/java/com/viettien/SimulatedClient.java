@@ -0,0 +1,323 @@
+package com.nguyenquynh;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+// Client giả lập không giao diện cho LoadTest: nhận gói của lớp 0, ghép frame bằng JitterBuffer như VideoClient
+// nhưng không giải mã JPEG. Mạng xấu được giả lập ở phía nhận: bỏ gói, giữ gói lại (trễ, jitter) và đảo thứ tự.
+// Mỗi client có địa chỉ loopback riêng (127.1.x.y, do LoadTest cấp) để server thấy từng phiên riêng biệt.
+public class SimulatedClient implements Runnable {
+    private static final int JITTER_BUFFER_FRAMES = 64;
+    private static final int FRAME_SLOTS = JITTER_BUFFER_FRAMES + 8;
+    private static final int RECEIVE_TIMEOUT_MS = 10;
+    private static final long HEARTBEAT_INTERVAL_NANOS = 2_000_000_000L;
+    private static final long NACK_INTERVAL_NANOS = 20_000_000L;
+    private static final long NACK_RETRY_NANOS = 40_000_000L;
+    private static final long NACK_TAIL_DELAY_NANOS = 50_000_000L;
+    private static final int MAX_NACK_ROUNDS = 3;
+    private static final int MAX_NACK_LENGTH = 1000;
+
+    // Điều kiện mạng giả lập, áp dụng độc lập cho từng gói
+    public static final class Impairment {
+        final double lossPercent;
+        final double reorderPercent;
+        final long delayNanos;
+        final long jitterNanos;
+        final long reorderNanos;
+
+        // reorderMillis: thời gian giữ thêm một gói bị đảo thứ tự để các gói sau vượt lên trước
+        public Impairment(double lossPercent, double reorderPercent, long delayMillis, long jitterMillis, long reorderMillis) {
+            this.lossPercent = lossPercent;
+            this.reorderPercent = reorderPercent;
+            this.delayNanos = delayMillis * 1_000_000L;
+            this.jitterNanos = jitterMillis * 1_000_000L;
+            this.reorderNanos = reorderMillis * 1_000_000L;
+        }
+
+        boolean isNone() {
+            return lossPercent <= 0 && reorderPercent <= 0 && delayNanos <= 0 && jitterNanos <= 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "mất %.1f%%, đảo %.1f%% (+%d ms), trễ %d±%d ms",
+                    lossPercent, reorderPercent, reorderNanos / 1_000_000, delayNanos / 1_000_000, jitterNanos / 1_000_000);
+        }
+    }
+
+    // Gói đang bị giữ lại, chờ tới thời điểm giao
+    private static final class HeldPacket {
+        final byte[] data = new byte[StreamProtocol.MAX_DATAGRAM_SIZE];
+        int length;
+        long dueNanos;
+    }
+
+    public interface SendTimes {
+        // Thời điểm server bắt đầu gửi frame (System.nanoTime), hoặc 0 nếu không còn lưu
+        long sendStartNanos(int frameNumber);
+    }
+
+    private final int id;
+    private final InetAddress localAddress;
+    private final InetSocketAddress serverControl;
+    private final StreamLayer layer;
+    private final boolean unicast;
+    private final NetworkInterface multicastInterface;
+    private final Impairment impairment;
+    private final boolean nack;
+    private final SendTimes sendTimes;
+    private final Histogram sharedLatency;
+    private final Histogram latency = new Histogram();
+    private final Random random;
+    private final PriorityQueue<HeldPacket> held = new PriorityQueue<>((a, b) -> Long.compare(a.dueNanos, b.dueNanos));
+    private final ArrayDeque<HeldPacket> freePackets = new ArrayDeque<>();
+    private final JitterBuffer jitterBuffer;
+    private volatile boolean running = true;
+    private DatagramSocket controlSocket;
+    private long lastHeartbeat;
+    private long lastNackScan;
+    private long connectNanos;
+    private volatile long firstFrameNanos = -1;
+
+    private volatile long packetsReceived;
+    private volatile long packetsDropped;
+    private volatile long packetsReordered;
+    private volatile long nacksSent;
+
+    public SimulatedClient(int id, InetAddress localAddress, InetSocketAddress serverControl, StreamLayer layer,
+                           boolean unicast, NetworkInterface multicastInterface, Impairment impairment, boolean nack,
+                           long playoutDelayMillis, SendTimes sendTimes, Histogram sharedLatency) {
+        this.id = id;
+        this.localAddress = localAddress;
+        this.serverControl = serverControl;
+        this.layer = layer;
+        this.unicast = unicast;
+        this.multicastInterface = multicastInterface;
+        this.impairment = impairment;
+        this.nack = nack;
+        this.sendTimes = sendTimes;
+        this.sharedLatency = sharedLatency;
+        this.random = new Random(id);
+        this.jitterBuffer = new JitterBuffer(JITTER_BUFFER_FRAMES, playoutDelayMillis * 1_000_000L,
+                new FrameSlotPool(FRAME_SLOTS, false));
+    }
+
+    @Override
+    public void run() {
+        try (DatagramSocket videoSocket = openVideoSocket();
+             DatagramSocket control = new DatagramSocket(new InetSocketAddress(localAddress, 0))) {
+            controlSocket = control;
+            connectNanos = System.nanoTime();
+            sendControl("CONNECT");
+            lastHeartbeat = System.nanoTime();
+
+            DatagramPacket packet = new DatagramPacket(new byte[StreamProtocol.MAX_DATAGRAM_SIZE], StreamProtocol.MAX_DATAGRAM_SIZE);
+            while (running) {
+                videoSocket.setSoTimeout(receiveTimeoutMillis());
+                try {
+                    packet.setLength(StreamProtocol.MAX_DATAGRAM_SIZE);
+                    videoSocket.receive(packet);
+                    packetsReceived++;
+                    impair(packet);
+                } catch (SocketTimeoutException e) {
+                    // Không có gói: vẫn giao gói đang giữ và loại frame quá hạn
+                }
+
+                long now = System.nanoTime();
+                deliverHeld(now);
+                pollFrames(now);
+                if (nack) {
+                    requestMissingPackets(now);
+                }
+                if (now - lastHeartbeat >= HEARTBEAT_INTERVAL_NANOS) {
+                    lastHeartbeat = now;
+                    sendControl("HEARTBEAT " + layer.getId());
+                }
+            }
+            sendControl("DISCONNECT");
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Client " + id + " lỗi: " + e.getMessage());
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    // Unicast: socket gắn với địa chỉ riêng của client. Multicast: mọi client cùng nghe cổng của lớp (SO_REUSEADDR)
+    private DatagramSocket openVideoSocket() throws IOException {
+        if (unicast) {
+            return new DatagramSocket(new InetSocketAddress(localAddress, layer.getPort()));
+        }
+        MulticastSocket socket = new MulticastSocket(null);
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(layer.getPort()));
+        socket.joinGroup(new InetSocketAddress(InetAddress.getByName(layer.getGroup()), 0), multicastInterface);
+        return socket;
+    }
+
+    private int receiveTimeoutMillis() {
+        HeldPacket next = held.peek();
+        if (next == null) {
+            return RECEIVE_TIMEOUT_MS;
+        }
+        long waitMillis = (next.dueNanos - System.nanoTime()) / 1_000_000;
+        return (int) Math.max(1, Math.min(RECEIVE_TIMEOUT_MS, waitMillis));
+    }
+
+    private void impair(DatagramPacket packet) {
+        if (impairment.isNone()) {
+            offer(packet.getData(), packet.getLength());
+            return;
+        }
+        if (random.nextDouble() * 100 < impairment.lossPercent) {
+            packetsDropped++;
+            return;
+        }
+
+        long delay = impairment.delayNanos;
+        if (impairment.jitterNanos > 0) {
+            delay += (long) (random.nextDouble() * impairment.jitterNanos);
+        }
+        if (random.nextDouble() * 100 < impairment.reorderPercent) {
+            delay += impairment.reorderNanos;
+            packetsReordered++;
+        }
+
+        HeldPacket heldPacket = freePackets.isEmpty() ? new HeldPacket() : freePackets.poll();
+        System.arraycopy(packet.getData(), 0, heldPacket.data, 0, packet.getLength());
+        heldPacket.length = packet.getLength();
+        heldPacket.dueNanos = System.nanoTime() + delay;
+        held.add(heldPacket);
+    }
+
+    private void deliverHeld(long now) {
+        HeldPacket next;
+        while ((next = held.peek()) != null && next.dueNanos <= now) {
+            held.poll();
+            offer(next.data, next.length);
+            freePackets.push(next);
+        }
+    }
+
+    private void offer(byte[] data, int length) {
+        if (length < StreamProtocol.HEADER_SIZE) {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.wrap(data, 0, StreamProtocol.HEADER_SIZE);
+        int frameNumber = header.getInt();
+        int packetNumber = header.getInt();
+        int totalPackets = header.getInt();
+        int flags = header.getInt();
+        jitterBuffer.offer(frameNumber, packetNumber, totalPackets, flags, data,
+                StreamProtocol.HEADER_SIZE, length - StreamProtocol.HEADER_SIZE);
+    }
+
+    // Độ trễ của frame tính từ lúc server bắt đầu gửi tới lúc frame được giao cho bộ giải mã
+    private void pollFrames(long now) {
+        FrameAssembly assembly;
+        while ((assembly = jitterBuffer.poll(now)) != null) {
+            if (firstFrameNanos < 0) {
+                firstFrameNanos = now - connectNanos;
+            }
+            long sendStart = sendTimes.sendStartNanos(assembly.getFrameNumber());
+            if (sendStart > 0) {
+                latency.record(now - sendStart);
+                sharedLatency.record(now - sendStart);
+            }
+            jitterBuffer.release(assembly);
+        }
+    }
+
+    // Giống VideoClient.requestMissingPackets; chỉ có ý nghĩa ở chế độ unicast vì gói gửi lại đi tới địa chỉ của client
+    private void requestMissingPackets(long now) {
+        if (now - lastNackScan < NACK_INTERVAL_NANOS) return;
+        lastNackScan = now;
+
+        String prefix = "NACK " + layer.getId() + " ";
+        StringBuilder message = new StringBuilder(prefix);
+        jitterBuffer.forEachPending(assembly -> {
+            if (assembly.isComplete() || jitterBuffer.isExpired(assembly, now)) {
+                return;
+            }
+            if (assembly.getNackRounds() >= MAX_NACK_ROUNDS
+                    || (assembly.getNackRounds() > 0 && now - assembly.getLastNackNanos() < NACK_RETRY_NANOS)) {
+                return;
+            }
+            long age = now - assembly.getFirstArrivalNanos();
+            if (assembly.appendMissing(message, MAX_NACK_LENGTH, age > NACK_TAIL_DELAY_NANOS) > 0) {
+                assembly.markNacked(now);
+            }
+        });
+        if (message.length() > prefix.length()) {
+            sendControl(message.toString());
+            nacksSent++;
+        }
+    }
+
+    private void sendControl(String command) {
+        byte[] data = command.getBytes();
+        try {
+            controlSocket.send(new DatagramPacket(data, data.length, serverControl));
+        } catch (IOException e) {
+            System.err.println("Client " + id + " lỗi gửi lệnh: " + e.getMessage());
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public InetAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    // Tỉ lệ frame ghép đủ trên số frame client đã thấy (hoàn tất + hết hạn + mất hẳn)
+    public double getCompletionRate() {
+        long completed = jitterBuffer.getCompletedFrames();
+        long total = completed + jitterBuffer.getEvictedFrames() + jitterBuffer.getDroppedFrames();
+        return total == 0 ? 0 : (double) completed / total;
+    }
+
+    // Thời gian từ lúc gửi CONNECT tới frame ghép đủ đầu tiên, -1 nếu chưa có
+    public long getFirstFrameNanos() {
+        return firstFrameNanos;
+    }
+
+    public long getCompletedFrames() {
+        return jitterBuffer.getCompletedFrames();
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    public long getPacketsDropped() {
+        return packetsDropped;
+    }
+
+    public long getPacketsReordered() {
+        return packetsReordered;
+    }
+
+    public long getNacksSent() {
+        return nacksSent;
+    }
+}
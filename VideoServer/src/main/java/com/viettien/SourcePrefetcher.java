@@ -0,0 +1,117 @@
+package com.nguyenquynh;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+// Mở trước nguồn kế tiếp của playlist trên luồng nền trong lúc nguồn hiện tại đang phát: tạo grabber, dò định dạng
+// (start), dựng chỉ mục frame và giải mã sẵn vài frame đầu. Luồng phát chỉ việc lấy kết quả khi hết nguồn hiện tại,
+// không phải chờ mở file (hàng trăm ms, lâu hơn với MKV lớn).
+public class SourcePrefetcher {
+    private static final int PREDECODED_FRAMES = 3;
+
+    // Nguồn đã mở sẵn; frame giải mã sẵn là bản sao vì grabber dùng lại buffer của frame cho lần đọc sau
+    public static final class PreparedSource {
+        final String path;
+        final FFmpegFrameGrabber grabber;
+        final FrameIndex frameIndex;
+        final ArrayDeque<Frame> frames;
+
+        PreparedSource(String path, FFmpegFrameGrabber grabber, FrameIndex frameIndex, ArrayDeque<Frame> frames) {
+            this.path = path;
+            this.grabber = grabber;
+            this.frameIndex = frameIndex;
+            this.frames = frames;
+        }
+
+        // timestamp của frame đầu tiên, hoặc 0 nếu nguồn không có frame nào
+        long firstTimestamp() {
+            return frames.isEmpty() ? 0 : frames.peek().timestamp;
+        }
+
+        // Đóng cả các frame giải mã sẵn chưa dùng
+        void close() {
+            Frame frame;
+            while ((frame = frames.poll()) != null) {
+                frame.close();
+            }
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (FFmpegFrameGrabber.Exception e) {
+                System.err.println("Lỗi khi đóng grabber: " + e.getMessage());
+            }
+        }
+    }
+
+    private final String path;
+    private final CompletableFuture<PreparedSource> result = new CompletableFuture<>();
+
+    public SourcePrefetcher(String path, Function<Runnable, Thread> threads) {
+        this.path = path;
+        threads.apply(this::prepare).start();
+    }
+
+    private void prepare() {
+        FFmpegFrameGrabber grabber = null;
+        ArrayDeque<Frame> frames = new ArrayDeque<>();
+        try {
+            grabber = VideoServer.createGrabber(path);
+            grabber.start();
+            FrameIndex frameIndex = null;
+            if (new File(path).isFile()) {
+                try {
+                    frameIndex = FrameIndex.load(path, grabber);
+                } catch (IOException e) {
+                    System.err.println("Không thể dựng chỉ mục frame của " + path + ": " + e.getMessage());
+                }
+            }
+
+            Frame frame;
+            while (frames.size() < PREDECODED_FRAMES && (frame = grabber.grabImage()) != null) {
+                frames.add(frame.clone());
+            }
+            PreparedSource prepared = new PreparedSource(path, grabber, frameIndex, frames);
+            if (!result.complete(prepared)) {
+                // Đã bị hủy trong lúc mở
+                prepared.close();
+            }
+        } catch (Throwable e) {
+            // Lỗi bất kỳ (kể cả RuntimeException từ FFmpeg) cũng phải kết thúc future, không thì luồng phát chờ mãi
+            if (grabber != null) {
+                new PreparedSource(path, grabber, null, frames).close();
+            }
+            result.completeExceptionally(e);
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isReady() {
+        return result.isDone();
+    }
+
+    // Chờ nguồn sẵn sàng (thường đã xong từ lâu)
+    public PreparedSource await() throws IOException, InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Không thể mở " + path + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // Bỏ nguồn đã mở (server dừng); nếu chưa mở xong thì luồng nền tự đóng khi xong
+    public void cancel() {
+        if (!result.cancel(false)) {
+            result.thenAccept(PreparedSource::close);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.nguyenquynh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Một lớp chất lượng của simulcast: độ phân giải, chất lượng JPEG, nhóm multicast và cổng riêng.
+// Mô tả dạng văn bản "id|tên|scale|quality|group|port" để gửi qua cổng điều khiển.
+public class StreamLayer implements EncodePipeline.EncodeSettings {
+    private final int id;
+    private final String name;
+    private final double scale;
+    private final float quality;
+    private final String group;
+    private final int port;
+
+    public StreamLayer(int id, String name, double scale, float quality, String group, int port) {
+        this.id = id;
+        this.name = name;
+        this.scale = scale;
+        this.quality = quality;
+        this.group = group;
+        this.port = port;
+    }
+
+    // Lớp gốc giữ nguyên nhóm và cổng cũ để client chưa chọn lớp vẫn xem được
+    public static List<StreamLayer> single(int basePort) {
+        return single(StreamProtocol.MULTICAST_GROUP, basePort);
+    }
+
+    public static List<StreamLayer> single(String group, int basePort) {
+        List<StreamLayer> layers = new ArrayList<>();
+        layers.add(new StreamLayer(0, "Gốc", 1.0, JpegEncoder.DEFAULT_QUALITY, group, basePort));
+        return layers;
+    }
+
+    // Ba lớp: gốc, 1/2 và 1/4 độ phân giải; cổng cách nhau 10 để tránh cổng điều khiển/trạng thái
+    public static List<StreamLayer> defaultLayers(int basePort) {
+        List<StreamLayer> layers = single(basePort);
+        layers.add(new StreamLayer(1, "Trung bình", 0.5, 0.7f, "239.255.10.2", basePort + 10));
+        layers.add(new StreamLayer(2, "Thấp", 0.25, 0.6f, "239.255.10.3", basePort + 20));
+        return layers;
+    }
+
+    public static String format(List<StreamLayer> layers) {
+        StringBuilder sb = new StringBuilder();
+        for (StreamLayer layer : layers) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append(String.format(Locale.ROOT, "%d|%s|%.3f|%.2f|%s|%d",
+                    layer.id, layer.name, layer.scale, layer.quality, layer.group, layer.port));
+        }
+        return sb.toString();
+    }
+
+    public static List<StreamLayer> parse(String payload) {
+        List<StreamLayer> layers = new ArrayList<>();
+        for (String entry : payload.trim().split(";")) {
+            String[] fields = entry.split("\\|");
+            if (fields.length != 6) continue;
+            try {
+                layers.add(new StreamLayer(Integer.parseInt(fields[0]), fields[1], Double.parseDouble(fields[2]),
+                        Float.parseFloat(fields[3]), fields[4], Integer.parseInt(fields[5])));
+            } catch (NumberFormatException e) {
+                System.err.println("Mô tả lớp không hợp lệ: " + entry);
+            }
+        }
+        return layers;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public double getScale() {
+        return scale;
+    }
+
+    @Override
+    public float getQuality() {
+        return quality;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    // Cùng nhóm và cổng thì không cần đổi socket
+    public boolean sameStream(StreamLayer other) {
+        return other != null && port == other.port && group.equals(other.group);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%.0f%%)", name, scale * 100);
+    }
+}
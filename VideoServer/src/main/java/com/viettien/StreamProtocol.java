@@ -0,0 +1,67 @@
+package com.nguyenquynh;
+
+import java.nio.ByteBuffer;
+
+// Hằng số và định dạng header dùng chung giữa server và client
+public final class StreamProtocol {
+    public static final int PACKET_SIZE = 1400;
+    // Header: frameNumber, packetIndex, totalPackets, flags
+    public static final int HEADER_SIZE = 16;
+    public static final String MULTICAST_GROUP = "224.0.0.1";
+
+    // Loại payload nằm ở byte thấp của flags
+    public static final int PAYLOAD_JPEG = 0;
+    public static final int PAYLOAD_H264 = 1;
+    // Các ô đã đổi so với frame trước (TileDelta); frame JPEG đầy đủ của chế độ delta mang cờ keyframe
+    public static final int PAYLOAD_TILES = 2;
+    public static final int PAYLOAD_MASK = 0xFF;
+    public static final int FLAG_KEYFRAME = 1 << 8;
+    // Gói parity FEC: packetIndex là số thứ tự block, số gói dữ liệu mỗi block nằm ở bit 16-23
+    public static final int FLAG_PARITY = 1 << 9;
+    private static final int FEC_BLOCK_SHIFT = 16;
+    // Payload parity = 2 byte XOR độ dài + PACKET_SIZE byte XOR dữ liệu
+    public static final int PARITY_PAYLOAD_SIZE = 2 + PACKET_SIZE;
+    public static final int MAX_DATAGRAM_SIZE = HEADER_SIZE + PARITY_PAYLOAD_SIZE;
+    // Frame lớn nhất client chấp nhận; header có totalPackets lớn hơn bị bỏ trước khi cấp phát slot
+    public static final int MAX_FRAME_BYTES = 32 * 1024 * 1024;
+    public static final int MAX_FRAME_PACKETS = MAX_FRAME_BYTES / PACKET_SIZE;
+
+    private StreamProtocol() {
+    }
+
+    public static void writeHeader(ByteBuffer buffer, int frameNumber, int packetIndex, int totalPackets, int flags) {
+        buffer.putInt(frameNumber);
+        buffer.putInt(packetIndex);
+        buffer.putInt(totalPackets);
+        buffer.putInt(flags);
+    }
+
+    public static int packetCount(int frameLength) {
+        return Math.max(1, (frameLength + PACKET_SIZE - 1) / PACKET_SIZE);
+    }
+
+    public static int payloadType(int flags) {
+        return flags & PAYLOAD_MASK;
+    }
+
+    public static boolean isKeyframe(int flags) {
+        return (flags & FLAG_KEYFRAME) != 0;
+    }
+
+    public static boolean isParity(int flags) {
+        return (flags & FLAG_PARITY) != 0;
+    }
+
+    public static int parityFlags(int flags, int blockSize) {
+        return flags | FLAG_PARITY | (blockSize << FEC_BLOCK_SHIFT);
+    }
+
+    public static int fecBlockSize(int flags) {
+        return (flags >>> FEC_BLOCK_SHIFT) & 0xFF;
+    }
+
+    // Bỏ các bit FEC, chỉ giữ loại payload và cờ keyframe
+    public static int frameFlags(int flags) {
+        return flags & (PAYLOAD_MASK | FLAG_KEYFRAME);
+    }
+}
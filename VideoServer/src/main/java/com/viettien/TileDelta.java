@@ -0,0 +1,188 @@
+package com.nguyenquynh;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Chế độ delta cho nội dung ít thay đổi (slide, quay màn hình): ảnh được chia ô TILE_SIZE x TILE_SIZE, băm từng ô
+// và chỉ các ô khác frame trước được mã hóa, ghép thành một ảnh "atlas" JPEG duy nhất. Frame không đổi ô nào
+// chỉ còn header (keep-alive). Ô là bội của MCU 16 px nên mỗi ô được nén độc lập, không lem sang ô bên cạnh.
+//
+// Payload PAYLOAD_TILES (big-endian): [rộng u16][cao u16][cỡ ô u16][số ô u16][chỉ số ô u16 x số ô][JPEG atlas]
+// Chỉ số ô đánh theo hàng của ảnh; ô thứ i của atlas nằm ở cột i % ATLAS_COLUMNS, hàng i / ATLAS_COLUMNS.
+// Ô ở mép phải/dưới có thể nhỏ hơn TILE_SIZE, phần thừa của ô trong atlas bị bỏ qua khi ghép.
+public class TileDelta {
+    public static final int TILE_SIZE = 64;
+    private static final int ATLAS_COLUMNS = 16;
+    private static final int HEADER_SIZE = 8;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    // Đọc 8 byte điểm ảnh một lần khi băm
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private int width = -1;
+    private int height = -1;
+    private long[] hashes;
+    private int[] changed;
+
+    // Băm các ô của ảnh (TYPE_3BYTE_BGR), so với lần gọi trước và ghi nhớ kết quả.
+    // Trả về chỉ số các ô đã đổi, hoặc null nếu kích thước ảnh khác lần trước (phải gửi cả frame)
+    public int[] diff(BufferedImage image) {
+        byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        boolean resized = image.getWidth() != width || image.getHeight() != height;
+        if (resized) {
+            width = image.getWidth();
+            height = image.getHeight();
+            hashes = new long[columns(width) * rows(height)];
+            changed = new int[hashes.length];
+        }
+
+        int columns = columns(width);
+        int count = 0;
+        for (int tile = 0; tile < hashes.length; tile++) {
+            int x = tile % columns * TILE_SIZE;
+            int y = tile / columns * TILE_SIZE;
+            long hash = hash(bgr, width * 3, x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+            if (hash != hashes[tile]) {
+                hashes[tile] = hash;
+                changed[count++] = tile;
+            }
+        }
+        if (resized) {
+            return null;
+        }
+        int[] tiles = new int[count];
+        System.arraycopy(changed, 0, tiles, 0, count);
+        return tiles;
+    }
+
+    // Kích thước ảnh của lần diff gần nhất, -1 nếu chưa có
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileCount() {
+        return hashes == null ? 0 : hashes.length;
+    }
+
+    private static long hash(byte[] bgr, int stride, int x, int y, int tileWidth, int tileHeight) {
+        long hash = HASH_MULTIPLIER;
+        for (int row = 0; row < tileHeight; row++) {
+            int offset = (y + row) * stride + x * 3;
+            int end = offset + tileWidth * 3;
+            for (; offset + 8 <= end; offset += 8) {
+                hash = (Long.rotateLeft(hash, 31) ^ (long) LONGS.get(bgr, offset)) * HASH_MULTIPLIER;
+            }
+            for (; offset < end; offset++) {
+                hash = (Long.rotateLeft(hash, 31) ^ bgr[offset]) * HASH_MULTIPLIER;
+            }
+        }
+        return hash;
+    }
+
+    private static int columns(int width) {
+        return (width + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private static int rows(int height) {
+        return (height + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    // Chép các ô đã đổi vào atlas; dùng lại reuse nếu đúng kích thước
+    public static BufferedImage atlas(BufferedImage image, int[] tiles, BufferedImage reuse) {
+        int atlasColumns = Math.min(tiles.length, ATLAS_COLUMNS);
+        int atlasWidth = atlasColumns * TILE_SIZE;
+        int atlasHeight = (tiles.length + ATLAS_COLUMNS - 1) / ATLAS_COLUMNS * TILE_SIZE;
+        BufferedImage atlas = reuse;
+        if (atlas == null || atlas.getWidth() != atlasWidth || atlas.getHeight() != atlasHeight) {
+            atlas = new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_3BYTE_BGR);
+        }
+
+        byte[] source = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        byte[] target = ((DataBufferByte) atlas.getRaster().getDataBuffer()).getData();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int columns = columns(width);
+        for (int i = 0; i < tiles.length; i++) {
+            int x = tiles[i] % columns * TILE_SIZE;
+            int y = tiles[i] / columns * TILE_SIZE;
+            int atlasX = i % ATLAS_COLUMNS * TILE_SIZE;
+            int atlasY = i / ATLAS_COLUMNS * TILE_SIZE;
+            int rowBytes = Math.min(TILE_SIZE, width - x) * 3;
+            for (int row = 0; row < Math.min(TILE_SIZE, height - y); row++) {
+                System.arraycopy(source, ((y + row) * width + x) * 3,
+                        target, ((atlasY + row) * atlasWidth + atlasX) * 3, rowBytes);
+            }
+        }
+        return atlas;
+    }
+
+    // jpeg null: frame không đổi (keep-alive), payload chỉ có header
+    public static byte[] payload(int width, int height, int[] tiles, byte[] jpeg) {
+        int jpegLength = jpeg != null ? jpeg.length : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + tiles.length * 2 + jpegLength);
+        buffer.putShort((short) width);
+        buffer.putShort((short) height);
+        buffer.putShort((short) TILE_SIZE);
+        buffer.putShort((short) tiles.length);
+        for (int tile : tiles) {
+            buffer.putShort((short) tile);
+        }
+        if (jpeg != null) {
+            buffer.put(jpeg);
+        }
+        return buffer.array();
+    }
+
+    // Phía client: ghép các ô của payload vào framebuffer (frame đầy đủ trước đó).
+    // Trả về số ô đã ghép, -1 nếu kích thước không khớp framebuffer hoặc payload không hợp lệ (phải chờ frame
+    // đầy đủ). Mọi kiểm tra làm trước khi ghép nên framebuffer không bao giờ bị ghép dở
+    public static int composite(ByteBuffer data, BufferedImage framebuffer, JpegDecoder decoder) throws IOException {
+        int width = data.getShort() & 0xFFFF;
+        int height = data.getShort() & 0xFFFF;
+        int tileSize = data.getShort() & 0xFFFF;
+        int count = data.getShort() & 0xFFFF;
+        if (width != framebuffer.getWidth() || height != framebuffer.getHeight() || tileSize == 0) {
+            return -1;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        if (data.remaining() < count * 2) {
+            return -1;
+        }
+
+        int columns = (width + tileSize - 1) / tileSize;
+        int tileCount = columns * ((height + tileSize - 1) / tileSize);
+        int[] tiles = new int[count];
+        for (int i = 0; i < count; i++) {
+            tiles[i] = data.getShort() & 0xFFFF;
+            if (tiles[i] >= tileCount) {
+                return -1;
+            }
+        }
+        BufferedImage atlas = decoder.read(data);
+        if (atlas.getWidth() < Math.min(count, ATLAS_COLUMNS) * tileSize
+                || atlas.getHeight() < (count + ATLAS_COLUMNS - 1) / ATLAS_COLUMNS * tileSize) {
+            return -1;
+        }
+        WritableRaster target = framebuffer.getRaster();
+        for (int i = 0; i < count; i++) {
+            int x = tiles[i] % columns * tileSize;
+            int y = tiles[i] / columns * tileSize;
+            int tileWidth = Math.min(tileSize, width - x);
+            int tileHeight = Math.min(tileSize, height - y);
+            target.setRect(x, y, atlas.getRaster().createChild(i % ATLAS_COLUMNS * tileSize,
+                    i / ATLAS_COLUMNS * tileSize, tileWidth, tileHeight, 0, 0, null));
+        }
+        return count;
+    }
+}
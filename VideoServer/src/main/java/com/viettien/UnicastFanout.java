@@ -0,0 +1,142 @@
+package com.nguyenquynh;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Phát unicast cho mạng không hỗ trợ multicast: mỗi gói chỉ được đóng gói một lần,
+// cùng một buffer được gửi lần lượt tới mọi client đã đăng ký lớp đó trên một DatagramChannel non-blocking.
+// Khi buffer gửi của socket đầy thì chờ OP_WRITE trên selector thay vì quay vòng.
+public class UnicastFanout implements AutoCloseable {
+    private static final int SEND_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final long WRITE_WAIT_MILLIS = 5;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Map<Integer, Set<InetSocketAddress>> layerSubscribers = new ConcurrentHashMap<>();
+    private final Map<InetAddress, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    private final AtomicLong datagramsSent = new AtomicLong();
+    private final AtomicLong datagramsDropped = new AtomicLong();
+
+    private static final class Subscription {
+        final InetSocketAddress endpoint;
+        final int layerId;
+
+        Subscription(InetSocketAddress endpoint, int layerId) {
+            this.endpoint = endpoint;
+            this.layerId = layerId;
+        }
+    }
+
+    public UnicastFanout() throws IOException {
+        channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_SIZE);
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_WRITE);
+    }
+
+    // Mỗi client chỉ nhận một lớp: đăng ký lớp mới thì bỏ lớp cũ. Thêm vào lớp mới trước rồi mới bỏ khỏi lớp cũ,
+    // để send đang chạy song song không bỏ sót client; đăng ký lại đúng lớp đang nhận thì không làm gì
+    public void subscribe(InetAddress client, int layerId, int videoPort) {
+        InetSocketAddress endpoint = new InetSocketAddress(client, videoPort);
+        Subscription previous = subscriptions.get(client);
+        if (previous != null && previous.layerId == layerId && previous.endpoint.equals(endpoint)) {
+            return;
+        }
+        layerSubscribers.computeIfAbsent(layerId, id -> ConcurrentHashMap.newKeySet()).add(endpoint);
+        subscriptions.put(client, new Subscription(endpoint, layerId));
+        if (previous != null) {
+            layerSubscribers.get(previous.layerId).remove(previous.endpoint);
+        }
+    }
+
+    public void unsubscribe(InetAddress client) {
+        Subscription previous = subscriptions.remove(client);
+        if (previous != null) {
+            layerSubscribers.get(previous.layerId).remove(previous.endpoint);
+        }
+    }
+
+    // Lớp client đang nhận, -1 nếu chưa đăng ký
+    public int getLayer(InetAddress client) {
+        Subscription subscription = subscriptions.get(client);
+        return subscription != null ? subscription.layerId : -1;
+    }
+
+    public Set<InetAddress> getClients() {
+        return subscriptions.keySet();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    // Gửi datagram (đã flip) tới mọi client của lớp; vị trí của buffer được giữ nguyên sau khi gửi.
+    // Trả về tổng số byte đã gửi
+    public synchronized long send(int layerId, ByteBuffer datagram) throws IOException {
+        Set<InetSocketAddress> subscribers = layerSubscribers.get(layerId);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return 0;
+        }
+
+        int start = datagram.position();
+        long total = 0;
+        for (InetSocketAddress subscriber : subscribers) {
+            datagram.position(start);
+            int sent = channel.send(datagram, subscriber);
+            if (sent == 0 && awaitWritable()) {
+                datagram.position(start);
+                sent = channel.send(datagram, subscriber);
+            }
+            if (sent == 0) {
+                datagramsDropped.incrementAndGet();
+            } else {
+                datagramsSent.incrementAndGet();
+                total += sent;
+            }
+        }
+        datagram.position(start);
+        return total;
+    }
+
+    // Gửi một thông điệp nhỏ (trạng thái) tới mọi client trên cổng cho trước
+    public synchronized void sendToClients(byte[] data, int port) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        for (InetAddress client : subscriptions.keySet()) {
+            buffer.rewind();
+            channel.send(buffer, new InetSocketAddress(client, port));
+        }
+    }
+
+    private boolean awaitWritable() throws IOException {
+        int ready = selector.select(WRITE_WAIT_MILLIS);
+        selector.selectedKeys().clear();
+        return ready > 0;
+    }
+
+    public long getDatagramsSent() {
+        return datagramsSent.get();
+    }
+
+    public long getDatagramsDropped() {
+        return datagramsDropped.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        channel.close();
+    }
+}
@@ -1,14 +1,15 @@
 package com.nguyenquynh;
 
 import org.bytedeco.javacv.*;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
@@ -18,19 +19,65 @@ import java.net.*;
 import java.io.*;
 import java.util.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class VideoClient extends Application {
     private static final int BUFFER_SIZE = 65535;
-    private static final int CONTROL_PORT = 4445;
+    // Thời gian chờ trước khi hỏi lại gói cuối frame, khoảng cách giữa các lần NACK và hạn chót phát
+    private static final long NACK_TAIL_DELAY_NANOS = 50_000_000L;
+    private static final long NACK_INTERVAL_NANOS = 20_000_000L;
+    private static final long NACK_RETRY_NANOS = 40_000_000L;
+    private static final int MAX_NACK_ROUNDS = 3;
+    private static final int MAX_NACK_LENGTH = 1000;
+    private static final int JITTER_BUFFER_FRAMES = 64;
+    private static final int RECEIVE_TIMEOUT_MS = 20;
+    private static final String MBEAN_NAME = "com.nguyenquynh:type=VideoClient";
+    // Server loại phiên sau 10 giây im lặng
+    private static final long HEARTBEAT_INTERVAL_NANOS = 2_000_000_000L;
+    // Dư vài slot cho frame đang được giải mã
+    private static final int FRAME_SLOTS = JITTER_BUFFER_FRAMES * 2;
 
     private final String serverIp;
     private final int serverPort;
 
-    private MulticastSocket socket;
+    private volatile MulticastSocket socket;
     private DatagramSocket controlSocket;
+    private NetworkInterface networkInterface;
+    private StreamLayer currentLayer;
+    private volatile StreamLayer requestedLayer;
+    private ComboBox<StreamLayer> layerBox;
     private ImageView imageView;
-    private Map<Integer, List<byte[]>> frameBuffers;
-    private Map<Integer, boolean[]> receivedPackets;
+    private JitterBuffer jitterBuffer;
+    private long playoutDelayMillis = 200;
+    private boolean offHeapFrameSlots = false;
+    private boolean unicast = false;
+    private final FrameMailbox frameMailbox = new FrameMailbox();
+    private DecodePool decodePool;
+    private int decodeThreads = DecodePool.defaultThreads();
+    private AnimationTimer renderTimer;
+    private final Metrics metrics = new Metrics("");
+    private final Histogram renderLag = metrics.histogram("videoclient_render_lag_seconds",
+            "Thời gian từ khi frame giải mã xong đến khi được vẽ", 1e-9);
+    private final Histogram firstPictureTime = metrics.histogram("videoclient_time_to_first_picture_seconds",
+            "Thời gian từ khi gửi CONNECT (hoặc đổi lớp) đến khi frame đầu tiên được vẽ", 1e-9);
+    // Thời điểm gửi CONNECT/SUBSCRIBE còn chờ hình đầu tiên, 0 nếu không chờ
+    private volatile long joinNanos = 0;
+    private int metricsPort = MetricsEndpoint.DEFAULT_CLIENT_PORT;
+    private long lastNackScan = 0;
+    // Tốc độ tua đã yêu cầu: 0 là bình thường, dương là tua nhanh, âm là tua lùi
+    private int trickSpeed = 0;
+    private long lastStatsUpdate = 0;
+    private long lastHeartbeat = 0;
+    private long nacksSent = 0;
+    private long packetsRequested = 0;
+    private long reportedExpected = 0;
+    private long reportedReceived = 0;
+    private long reportedFrames = 0;
+    private long reportedLostFrames = 0;
+    private long reportedLatePackets = 0;
+    private long reportedDecodeNanos = 0;
+    private long reportedDecodedFrames = 0;
+    private Label statsLabel;
     private Label statusLabel;
     private volatile boolean isPlaying = true;
     private Stage primaryStage;
@@ -63,21 +110,67 @@ public class VideoClient extends Application {
 
         // Controls
         Button stopButton = new Button("Dừng");
+        Button backButton = new Button("-10s");
+        Button rewindButton = new Button("<<");
+        Button normalButton = new Button("1x");
+        Button fastForwardButton = new Button(">>");
+        Button forwardButton = new Button("+10s");
         statusLabel = new Label("Trạng thái: Đang kết nối...");
+        statsLabel = new Label();
+        layerBox = new ComboBox<>();
 
         // Control actions
         stopButton.setOnAction(e -> stop());
+        backButton.setOnAction(e -> seek("-10"));
+        forwardButton.setOnAction(e -> seek("+10"));
+        rewindButton.setOnAction(e -> trickPlay(-1));
+        fastForwardButton.setOnAction(e -> trickPlay(1));
+        normalButton.setOnAction(e -> {
+            trickSpeed = 0;
+            sendPlaybackCommand("NORMAL");
+        });
+        // Luồng nhận tự chuyển socket ở vòng lặp kế tiếp
+        layerBox.setOnAction(e -> {
+            StreamLayer layer = layerBox.getValue();
+            if (layer != null) {
+                requestedLayer = layer;
+            }
+        });
 
         // Layout
         HBox controls = new HBox(10);
         controls.setPadding(new Insets(10));
-        controls.getChildren().addAll(stopButton, statusLabel);
+        controls.getChildren().addAll(stopButton, backButton, rewindButton, normalButton, fastForwardButton,
+                forwardButton, layerBox, statusLabel, statsLabel);
 
         VBox root = new VBox(10);
         root.setPadding(new Insets(10));
         root.getChildren().addAll(imageView, controls);
         VBox.setVgrow(imageView, Priority.ALWAYS);
 
+        // Mỗi nhịp vẽ chỉ lấy frame mới nhất, nên hàng đợi FX không bao giờ bị dồn
+        renderTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                FrameMailbox.Surface surface = frameMailbox.takeLatest();
+                if (surface == null) return;
+                renderLag.record(System.nanoTime() - surface.getPublishedNanos());
+
+                surface.markDirty();
+                if (imageView.getImage() != surface.getImage()) {
+                    imageView.setImage(surface.getImage());
+                }
+                long join = joinNanos;
+                if (join != 0) {
+                    joinNanos = 0;
+                    long elapsed = System.nanoTime() - join;
+                    firstPictureTime.record(elapsed);
+                    System.out.printf("Hình đầu tiên sau %.1f ms%n", elapsed / 1e6);
+                }
+            }
+        };
+        renderTimer.start();
+
         Scene scene = new Scene(root);
         stage.setTitle("Video Client - Kết nối tới " + serverIp);
         stage.setScene(scene);
@@ -95,7 +188,7 @@ public class VideoClient extends Application {
             controlSocket = new DatagramSocket();
 
             // Tìm network interface phù hợp
-            NetworkInterface networkInterface = findNetworkInterface();
+            networkInterface = findNetworkInterface();
             if (networkInterface == null) {
                 throw new IOException("Không tìm thấy network interface phù hợp");
             }
@@ -110,24 +203,28 @@ public class VideoClient extends Application {
                 }
             }
 
-            // Khởi tạo multicast socket
-            socket = new MulticastSocket(serverPort);
-            socket.setReuseAddress(true);
-            socket.setNetworkInterface(networkInterface);
-
-            // Join multicast group
-            InetAddress groupAddr = InetAddress.getByName("224.0.0.1"); // Địa chỉ multicast tiêu chuẩn
-            socket.joinGroup(groupAddr);
+            // Bắt đầu ở lớp gốc (224.0.0.1 trên cổng của server), có thể đổi lớp sau khi nhận danh sách
+            currentLayer = StreamLayer.single(serverPort).get(0);
+            socket = openLayerSocket(currentLayer);
 
             // Khởi tạo buffers
-            frameBuffers = new HashMap<>();
-            receivedPackets = new HashMap<>();
-
-            // Bắt đầu lắng nghe trạng thái
+            jitterBuffer = new JitterBuffer(JITTER_BUFFER_FRAMES, playoutDelayMillis * 1_000_000L,
+                    new FrameSlotPool(FRAME_SLOTS, offHeapFrameSlots));
+            decodePool = new DecodePool(decodeThreads, frameMailbox, jitterBuffer::release);
+            decodePool.setDecodeHistogram(metrics.histogram("videoclient_decode_seconds", "Thời gian giải mã một frame", 1e-9));
+            // Chế độ delta: mất frame ô thì xin frame đầy đủ thay vì chờ lần làm mới định kỳ
+            decodePool.setRefreshRequester(() -> sendPlaybackCommand("REFRESH"));
+            decodePool.start();
+            initializeMetrics();
+
+            // Bắt đầu lắng nghe trạng thái và phản hồi điều khiển
             setupStatusListener(networkInterface);
+            setupControlListener();
 
-            // Gửi thông báo kết nối
+            // Gửi thông báo kết nối và hỏi danh sách lớp simulcast
+            joinNanos = System.nanoTime();
             sendControlCommand("CONNECT");
+            sendControlCommand("LAYERS");
 
             System.out.println("Kết nối thành công");
             System.out.println("Multicast group: 224.0.0.1");
@@ -139,6 +236,78 @@ public class VideoClient extends Application {
         }
     }
 
+    // Bộ đếm đọc thẳng từ jitter buffer và nhóm giải mã; xuất qua JMX và endpoint Prometheus trên localhost
+    private void initializeMetrics() {
+        metrics.counter("videoclient_packets_expected_total", "Số gói dữ liệu lẽ ra phải nhận", jitterBuffer::getExpectedPackets);
+        metrics.counter("videoclient_packets_received_total", "Số gói dữ liệu đã nhận", jitterBuffer::getReceivedPackets);
+        metrics.gauge("videoclient_packet_loss_ratio", "Tỉ lệ mất gói tích lũy", () -> {
+            long expected = jitterBuffer.getExpectedPackets();
+            return expected > 0 ? 1.0 - (double) jitterBuffer.getReceivedPackets() / expected : 0;
+        });
+        metrics.counter("videoclient_late_packets_total", "Số gói đến sau hạn phát", jitterBuffer::getLatePackets);
+        metrics.counter("videoclient_duplicate_packets_total", "Số gói trùng", jitterBuffer::getDuplicatePackets);
+        metrics.counter("videoclient_invalid_packets_total", "Số gói có header không hợp lệ", jitterBuffer::getInvalidPackets);
+        metrics.counter("videoclient_frames_completed_total", "Số frame ghép đủ", jitterBuffer::getCompletedFrames);
+        metrics.counter("videoclient_frames_evicted_total", "Số frame bị đẩy khỏi cửa sổ", jitterBuffer::getEvictedFrames);
+        metrics.counter("videoclient_frames_dropped_total", "Số frame hết hạn chưa đủ gói", jitterBuffer::getDroppedFrames);
+        metrics.counter("videoclient_frames_decoded_total", "Số frame đã giải mã", decodePool::getDecodedFrames);
+        metrics.counter("videoclient_frames_stale_total", "Số frame giải mã xong nhưng đã cũ", decodePool::getStaleFrames);
+        metrics.counter("videoclient_delta_tile_frames_total", "Số frame ô đã ghép (chế độ delta, không tính keep-alive)", decodePool::getTileFrames);
+        metrics.counter("videoclient_delta_keepalive_frames_total", "Số frame keep-alive (chế độ delta)",
+                decodePool::getKeepAliveFrames);
+        metrics.counter("videoclient_frames_overflow_total", "Số frame bỏ do hàng đợi giải mã đầy", decodePool::getOverflowFrames);
+        metrics.counter("videoclient_frames_replaced_total", "Số frame bị thay trước khi kịp vẽ", frameMailbox::getReplacedFrames);
+        metrics.counter("videoclient_nacks_sent_total", "Số NACK đã gửi", () -> nacksSent);
+
+        metrics.registerMBean(MBEAN_NAME);
+        MetricsEndpoint.register(metrics);
+        MetricsEndpoint.start(metricsPort);
+    }
+
+    private MulticastSocket openLayerSocket(StreamLayer layer) throws IOException {
+        MulticastSocket layerSocket = new MulticastSocket(layer.getPort());
+        layerSocket.setReuseAddress(true);
+        layerSocket.setNetworkInterface(networkInterface);
+        if (!unicast) {
+            layerSocket.joinGroup(InetAddress.getByName(layer.getGroup()));
+        }
+        // Không chờ mãi trên socket để vẫn loại được frame quá hạn khi không có gói mới
+        layerSocket.setSoTimeout(RECEIVE_TIMEOUT_MS);
+        return layerSocket;
+    }
+
+    // Chạy trên luồng nhận: mở socket của lớp mới trước rồi mới rời lớp cũ.
+    // Các lớp dùng chung số frame nên chỉ cần bỏ các frame đang ghép dở
+    private void switchLayer(StreamLayer layer) {
+        MulticastSocket oldSocket = socket;
+        try {
+            socket = openLayerSocket(layer);
+        } catch (IOException e) {
+            System.err.println("Không thể chuyển sang lớp " + layer + ": " + e.getMessage());
+            requestedLayer = currentLayer;
+            return;
+        }
+        try {
+            if (!unicast) {
+                oldSocket.leaveGroup(InetAddress.getByName(currentLayer.getGroup()));
+            }
+        } catch (IOException e) {
+            System.err.println("Lỗi khi rời group: " + e.getMessage());
+        } finally {
+            oldSocket.close();
+        }
+        jitterBuffer.clear();
+        currentLayer = layer;
+        try {
+            // Ở chế độ unicast server chỉ gửi lớp mà client đã đăng ký; server gửi kèm frame gần nhất của lớp
+            joinNanos = System.nanoTime();
+            sendControlCommand("SUBSCRIBE " + layer.getId());
+        } catch (IOException e) {
+            System.err.println("Lỗi gửi SUBSCRIBE: " + e.getMessage());
+        }
+        System.out.println("Đã chuyển sang lớp " + layer + " - " + layer.getGroup() + ":" + layer.getPort());
+    }
+
     private NetworkInterface findNetworkInterface() {
         try {
             if (serverIp.equals("127.0.0.1") || serverIp.equals("localhost")) {
@@ -173,8 +342,10 @@ public class VideoClient extends Application {
         statusSocket.setReuseAddress(true);
         statusSocket.setNetworkInterface(networkInterface);
 
-        InetAddress groupAddr = InetAddress.getByName("224.0.0.1");
-        statusSocket.joinGroup(groupAddr);
+        if (!unicast) {
+            InetAddress groupAddr = InetAddress.getByName("224.0.0.1");
+            statusSocket.joinGroup(groupAddr);
+        }
 
         Thread statusThread = new Thread(() -> {
             try {
@@ -200,17 +371,75 @@ public class VideoClient extends Application {
         statusThread.start();
     }
 
+    // Phản hồi unicast của server trên socket điều khiển (danh sách lớp)
+    private void setupControlListener() {
+        Thread controlThread = new Thread(() -> {
+            try {
+                byte[] buffer = new byte[4096];
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                while (!controlSocket.isClosed()) {
+                    packet.setLength(buffer.length);
+                    controlSocket.receive(packet);
+
+                    String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                    if (message.startsWith("LAYERS ")) {
+                        updateLayers(StreamLayer.parse(message.substring(7)));
+                    }
+                }
+            } catch (IOException e) {
+                if (!controlSocket.isClosed()) {
+                    System.err.println("Lỗi nhận phản hồi điều khiển: " + e.getMessage());
+                }
+            }
+        });
+        controlThread.setDaemon(true);
+        controlThread.start();
+    }
+
+    private void updateLayers(List<StreamLayer> layers) {
+        Platform.runLater(() -> {
+            layerBox.getItems().setAll(layers);
+            StreamLayer selected = requestedLayer != null ? requestedLayer : currentLayer;
+            for (StreamLayer layer : layers) {
+                if (selected != null && layer.getId() == selected.getId()) {
+                    // Kênh có thể phát trên nhóm/cổng khác mặc định: lớp cùng id được chọn lại theo mô tả của server
+                    requestedLayer = layer;
+                    layerBox.setValue(layer);
+                }
+            }
+        });
+    }
+
     private void startReceiving() {
         Thread receiveThread = new Thread(() -> {
+            // Một buffer nhận duy nhất, payload được chép thẳng vào slot của frame
+            byte[] buffer = new byte[BUFFER_SIZE];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
             try {
                 while (!Thread.currentThread().isInterrupted()) {
-                    byte[] buffer = new byte[BUFFER_SIZE];
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
+                    StreamLayer requested = requestedLayer;
+                    if (requested != null && !requested.sameStream(currentLayer)) {
+                        switchLayer(requested);
+                    }
 
+                    boolean received;
+                    try {
+                        packet.setLength(buffer.length);
+                        socket.receive(packet);
+                        received = true;
+                    } catch (SocketTimeoutException e) {
+                        received = false;
+                    }
+
+                    // Heartbeat gửi cả khi tạm dừng để server không loại phiên
+                    sendHeartbeat();
                     if (!isPlaying) continue;
 
-                    processPacket(packet);
+                    if (received) {
+                        processPacket(packet);
+                    }
+                    deliverFrames();
+                    requestMissingPackets();
                 }
             } catch (Exception e) {
                 if (!Thread.currentThread().isInterrupted()) {
@@ -226,65 +455,148 @@ public class VideoClient extends Application {
 
     private void processPacket(DatagramPacket packet) {
         try {
-            ByteBuffer headerBuffer = ByteBuffer.wrap(packet.getData(), 0, 12);
+            ByteBuffer headerBuffer = ByteBuffer.wrap(packet.getData(), 0, StreamProtocol.HEADER_SIZE);
             int frameNumber = headerBuffer.getInt();
             int packetNumber = headerBuffer.getInt();
             int totalPackets = headerBuffer.getInt();
+            int flags = headerBuffer.getInt();
 
-            byte[] packetData = new byte[packet.getLength() - 12];
-            System.arraycopy(packet.getData(), 12, packetData, 0, packetData.length);
-
-            frameBuffers.putIfAbsent(frameNumber, new ArrayList<>(Collections.nCopies(totalPackets, null)));
-            receivedPackets.putIfAbsent(frameNumber, new boolean[totalPackets]);
-
-            List<byte[]> frameBuffer = frameBuffers.get(frameNumber);
-            boolean[] received = receivedPackets.get(frameNumber);
-
-            frameBuffer.set(packetNumber, packetData);
-            received[packetNumber] = true;
-
-            if (checkFrameComplete(frameNumber)) {
-                processFrame(frameNumber);
-            }
+            jitterBuffer.offer(frameNumber, packetNumber, totalPackets, flags, packet.getData(),
+                    packet.getOffset() + StreamProtocol.HEADER_SIZE, packet.getLength() - StreamProtocol.HEADER_SIZE);
         } catch (Exception e) {
             System.err.println("Lỗi xử lý gói tin: " + e.getMessage());
         }
     }
 
-    private boolean checkFrameComplete(int frameNumber) {
-        boolean[] received = receivedPackets.get(frameNumber);
-        for (boolean b : received) {
-            if (!b) return false;
+    // Lấy các frame đã sẵn sàng khỏi jitter buffer theo đúng thứ tự frameNumber và giao cho nhóm giải mã
+    private void deliverFrames() {
+        FrameAssembly assembly;
+        while ((assembly = jitterBuffer.poll(System.nanoTime())) != null) {
+            decodePool.submit(assembly);
         }
-        return true;
     }
 
-    private void processFrame(int frameNumber) {
+    private void sendHeartbeat() {
+        long now = System.nanoTime();
+        if (now - lastHeartbeat < HEARTBEAT_INTERVAL_NANOS) return;
+        lastHeartbeat = now;
         try {
-            List<byte[]> frameBuffer = frameBuffers.get(frameNumber);
+            sendControlCommand("HEARTBEAT " + currentLayer.getId());
+        } catch (IOException e) {
+            System.err.println("Lỗi gửi heartbeat: " + e.getMessage());
+        }
+    }
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            for (byte[] packetData : frameBuffer) {
-                if (packetData != null) {
-                    baos.write(packetData);
-                }
+    // Gom các gói còn thiếu của những frame gần đây thành một NACK gửi qua cổng điều khiển
+    private void requestMissingPackets() {
+        long now = System.nanoTime();
+        if (now - lastNackScan < NACK_INTERVAL_NANOS) return;
+        lastNackScan = now;
+
+        String prefix = "NACK " + currentLayer.getId() + " ";
+        StringBuilder nack = new StringBuilder(prefix);
+        jitterBuffer.forEachPending(assembly -> {
+            if (assembly.isComplete() || jitterBuffer.isExpired(assembly, now)) {
+                return;
+            }
+            if (assembly.getNackRounds() >= MAX_NACK_ROUNDS
+                    || (assembly.getNackRounds() > 0 && now - assembly.getLastNackNanos() < NACK_RETRY_NANOS)) {
+                return;
             }
 
-            byte[] frameData = baos.toByteArray();
-            ByteArrayInputStream bais = new ByteArrayInputStream(frameData);
-            Image image = new Image(bais);
+            long age = now - assembly.getFirstArrivalNanos();
+            int requested = assembly.appendMissing(nack, MAX_NACK_LENGTH, age > NACK_TAIL_DELAY_NANOS);
+            if (requested > 0) {
+                assembly.markNacked(now);
+                packetsRequested += requested;
+            }
+        });
 
-            Platform.runLater(() -> imageView.setImage(image));
+        if (nack.length() > prefix.length()) {
+            try {
+                sendControlCommand(nack.toString());
+                nacksSent++;
+            } catch (IOException e) {
+                System.err.println("Lỗi gửi NACK: " + e.getMessage());
+            }
+        }
 
-            // Cleanup processed frame
-            frameBuffers.remove(frameNumber);
-            receivedPackets.remove(frameNumber);
+        if (now - lastStatsUpdate >= 1_000_000_000L) {
+            lastStatsUpdate = now;
+            String stats = String.format("NACK: %d (%d gói) | Gói trễ: %d | Trùng: %d | Frame hết hạn: %d | Mất: %d"
+                            + " | Giải mã: %.1f ms | Bỏ (cũ/đầy): %d/%d",
+                    nacksSent, packetsRequested, jitterBuffer.getLatePackets(), jitterBuffer.getDuplicatePackets(),
+                    jitterBuffer.getEvictedFrames(), jitterBuffer.getDroppedFrames(), decodePool.getAverageDecodeMillis(),
+                    decodePool.getStaleFrames(), decodePool.getOverflowFrames());
+            Platform.runLater(() -> statsLabel.setText(stats));
+            sendReceiverReport();
+        }
+    }
 
-        } catch (Exception e) {
-            System.err.println("Lỗi xử lý frame " + frameNumber + ": " + e.getMessage());
+    // Báo cáo định kỳ cho server (mất gói, frame trễ, thời gian giải mã) để server điều chỉnh chất lượng
+    private void sendReceiverReport() {
+        long expected = jitterBuffer.getExpectedPackets();
+        long received = jitterBuffer.getReceivedPackets();
+        long lostFrames = jitterBuffer.getEvictedFrames() + jitterBuffer.getDroppedFrames();
+        long frames = jitterBuffer.getCompletedFrames() + lostFrames;
+        long latePackets = jitterBuffer.getLatePackets();
+        long decodeNanos = decodePool.getTotalDecodeNanos();
+        long decodedFrames = decodePool.getDecodedFrames();
+
+        double loss = percent(expected - received - (reportedExpected - reportedReceived), expected - reportedExpected);
+        double frameLoss = percent(lostFrames - reportedLostFrames, frames - reportedFrames);
+        double decodeMillis = decodedFrames > reportedDecodedFrames
+                ? (decodeNanos - reportedDecodeNanos) / 1_000_000.0 / (decodedFrames - reportedDecodedFrames) : 0;
+
+        try {
+            sendControlCommand(String.format(Locale.ROOT, "REPORT loss=%.2f frames=%.2f late=%d decode=%.2f",
+                    loss, frameLoss, latePackets - reportedLatePackets, decodeMillis));
+        } catch (IOException e) {
+            System.err.println("Lỗi gửi báo cáo: " + e.getMessage());
+        }
+
+        reportedExpected = expected;
+        reportedReceived = received;
+        reportedFrames = frames;
+        reportedLostFrames = lostFrames;
+        reportedLatePackets = latePackets;
+        reportedDecodeNanos = decodeNanos;
+        reportedDecodedFrames = decodedFrames;
+    }
+
+    private static double percent(long part, long total) {
+        return total > 0 ? part * 100.0 / total : 0;
+    }
+
+    // Độ trễ phát: thời gian tối đa chờ gói đến muộn/gửi lại trước khi bỏ frame
+    public void setPlayoutDelay(long millis) {
+        this.playoutDelayMillis = millis;
+        if (jitterBuffer != null) {
+            jitterBuffer.setPlayoutDelay(millis * 1_000_000L);
         }
     }
 
+    // Cổng HTTP localhost cho metrics, 0 là tắt; phải gọi trước khi kết nối
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    // Số luồng giải mã JPEG; phải gọi trước khi kết nối
+    public void setDecodeThreads(int threads) {
+        this.decodeThreads = Math.max(1, threads);
+    }
+
+    // Nhận unicast từ server (không join nhóm multicast); server cũng phải bật chế độ unicast.
+    // Phải gọi trước khi kết nối
+    public void setUnicast(boolean unicast) {
+        this.unicast = unicast;
+    }
+
+    // Dùng buffer off-heap cho các slot ghép frame; phải gọi trước khi kết nối
+    public void setOffHeapFrameSlots(boolean offHeap) {
+        this.offHeapFrameSlots = offHeap;
+    }
+
     private void updateStatus(String status) {
         Platform.runLater(() -> {
             switch (status) {
@@ -309,6 +621,29 @@ public class VideoClient extends Application {
         Platform.exit();
     }
 
+    private void seek(String seconds) {
+        trickSpeed = 0;
+        sendPlaybackCommand("SEEK " + seconds);
+    }
+
+    // Bấm lại cùng chiều thì tăng tốc 2x -> 4x -> 8x -> 2x, đổi chiều thì bắt đầu lại từ 2x
+    private void trickPlay(int direction) {
+        int speed = Integer.signum(trickSpeed) == direction ? Math.abs(trickSpeed) * 2 : 2;
+        if (speed > 8) {
+            speed = 2;
+        }
+        trickSpeed = direction * speed;
+        sendPlaybackCommand((direction > 0 ? "FASTFORWARD " : "REWIND ") + speed);
+    }
+
+    private void sendPlaybackCommand(String command) {
+        try {
+            sendControlCommand(command);
+        } catch (IOException e) {
+            System.err.println("Lỗi gửi lệnh " + command + ": " + e.getMessage());
+        }
+    }
+
     private void sendControlCommand(String command) throws IOException {
         if (controlSocket != null && !controlSocket.isClosed()) {
             byte[] data = command.getBytes();
@@ -316,7 +651,7 @@ public class VideoClient extends Application {
                     data,
                     data.length,
                     InetAddress.getByName(serverIp),
-                    CONTROL_PORT
+                    serverPort + 1
             );
             controlSocket.send(packet);
         }
@@ -328,8 +663,9 @@ public class VideoClient extends Application {
                 if (socket != null && !socket.isClosed()) {
                     try {
                         sendControlCommand("DISCONNECT");
-                        InetAddress groupAddr = InetAddress.getByName("224.0.0.1");
-                        socket.leaveGroup(groupAddr);
+                        if (!unicast) {
+                            socket.leaveGroup(InetAddress.getByName(currentLayer.getGroup()));
+                        }
                     } catch (Exception e) {
                         System.err.println("Lỗi khi rời group: " + e.getMessage());
                     } finally {
@@ -339,6 +675,14 @@ public class VideoClient extends Application {
                 if (controlSocket != null && !controlSocket.isClosed()) {
                     controlSocket.close();
                 }
+                if (renderTimer != null) {
+                    renderTimer.stop();
+                }
+                if (decodePool != null) {
+                    decodePool.stop();
+                }
+                MetricsEndpoint.unregister(metrics);
+                metrics.unregisterMBean(MBEAN_NAME);
             } catch (Exception e) {
                 System.err.println("Lỗi khi dọn dẹp resources: " + e.getMessage());
             }
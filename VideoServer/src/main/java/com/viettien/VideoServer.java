@@ -1,15 +1,21 @@
 package com.nguyenquynh;
 
 import org.bytedeco.javacv.*;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVIndexEntry;
+import org.bytedeco.ffmpeg.avformat.AVStream;
 import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
 import org.bytedeco.ffmpeg.global.avutil;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.geometry.Rectangle2D;
 import javafx.stage.Screen;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.Slider;
 import javafx.scene.layout.VBox;
 import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
@@ -18,21 +24,93 @@ import javafx.geometry.Pos;
 import javafx.geometry.Insets;
 import java.net.*;
 import java.io.*;
+import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
-import javax.imageio.ImageIO;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.management.ObjectName;
 
 public class VideoServer {
-    private static final int PACKET_SIZE = 1400;
+    // Client gửi heartbeat mỗi 2 giây; im lặng quá ngưỡng này thì phiên bị loại
+    private static final long SESSION_TIMEOUT_MILLIS = 10_000;
+    // Nguồn tổng hợp của FFmpeg (bộ lọc lavfi), ví dụ "lavfi:testsrc2=size=1280x720:rate=30"
+    public static final String SYNTHETIC_PREFIX = "lavfi:";
+    // Tốc độ tua nhanh/lùi cho phép (FASTFORWARD/REWIND <n>)
+    private static final int MIN_TRICK_SPEED = 2;
+    private static final int MAX_TRICK_SPEED = 8;
+    // Chế độ delta: frame đầy đủ tối thiểu sau chừng này frame ô
+    public static final int DEFAULT_DELTA_REFRESH_INTERVAL = 60;
+
+    // Được gọi ngay trước khi gửi gói đầu của mỗi frame, trên luồng gửi của lớp
+    public interface FrameListener {
+        void onFrameSent(int layerId, int frameNumber, long sendStartNanos);
+    }
+
+    // Đầu ra của một lớp simulcast: sender tới nhóm multicast của lớp, bộ điều tốc và pipeline mã hóa riêng
+    private static final class LayerOutput {
+        final StreamLayer layer;
+        final PacketSender sender;
+        volatile PacketPacer pacer;
+        EncodePipeline pipeline;
+        // Chỉ dùng trên luồng phát: phần frame nguồn lớp này còn được gửi (tỉ lệ khung hình riêng từng lớp)
+        double frameCredit;
+
+        LayerOutput(StreamLayer layer, PacketSender sender) {
+            this.layer = layer;
+            this.sender = sender;
+        }
+    }
 
     private final String videoPath;
+    // Các nguồn phát lần lượt (hết thì quay lại đầu), null nếu chỉ phát lặp videoPath
+    private final List<String> playlist;
     private final String serverIp;
     private final int port;
+    private final boolean passthrough;
+    private final boolean headless;
     private final AtomicBoolean isRunning;
     private final AtomicBoolean isPaused;
 
-    private DatagramSocket socket;
-    private DatagramSocket controlSocket;
+    private DatagramChannel channel;
+    private InetAddress multicastAddress;
+    private List<StreamLayer> layers;
+    private volatile List<LayerOutput> outputs = new ArrayList<>();
+    // Tạo trên luồng phát, đọc từ luồng điều khiển và luồng giao diện
+    private volatile RetransmitService retransmitService;
+    private boolean unicast;
+    private UnicastFanout fanout;
+    private NetworkInterface multicastInterface;
+    private FrameListener frameListener;
+    private volatile boolean loopCache = false;
+    private volatile PacketCache packetCache;
+    private Thread cacheBuildThread;
+    private final AtomicLong cachedFramesDropped = new AtomicLong();
+    private volatile FrameIndex frameIndex;
+    private int playlistIndex = 0;
+    private SourcePrefetcher nextSource;
+    // Frame đầu của nguồn hiện tại đã được giải mã sẵn khi mở trước
+    private ArrayDeque<Frame> predecodedFrames = new ArrayDeque<>();
+    // Cộng vào timestamp của nguồn hiện tại để mốc thời gian nối tiếp qua các nguồn của playlist
+    private long timelineOffsetMicros = 0;
+    // Vị trí đang phát (micro giây), mốc SEEK chờ luồng phát áp dụng (-1 nếu không có) và tốc độ tua
+    // (0: bình thường, dương: tua nhanh, âm: tua lùi)
+    private volatile long positionMicros = 0;
+    private volatile long pendingSeekMicros = -1;
+    private volatile int trickSpeed = 0;
+    private volatile boolean instantJoin = true;
+    private final AtomicLong joinFramesSent = new AtomicLong();
+    private boolean deltaMode = false;
+    private int deltaRefreshInterval = DEFAULT_DELTA_REFRESH_INTERVAL;
+    private volatile DatagramSocket controlSocket;
     private FFmpegFrameGrabber grabber;
     private ImageView previewView;
     private Button playPauseButton;
@@ -40,8 +118,32 @@ public class VideoServer {
     private Stage serverStage;
     private Label statusLabel;
     private Label connectedClientsLabel;
-    private int connectedClients = 0;
-    private volatile boolean isPreviewUpdating = false;
+    private final SessionRegistry sessions;
+    private final FrameMailbox previewMailbox = new FrameMailbox();
+    private AnimationTimer previewTimer;
+    private int encoderThreads = EncodePipeline.defaultEncoderThreads();
+    private EncodePipeline.DropPolicy dropPolicy = EncodePipeline.DropPolicy.DROP_OLDEST;
+    private long maxBitrate = 0;
+    private volatile int fecOverhead = 0;
+    private final QualityController qualityController = new QualityController();
+    private String channelName;
+    private Supplier<String> directory;
+    private ThreadFactory threadFactory;
+    private volatile String status = "";
+    private final AtomicLong busyNanos = new AtomicLong();
+    private volatile boolean idleWhenUnwatched = false;
+    private volatile boolean liveClock = false;
+    private final Object viewerSignal = new Object();
+    private volatile long warmStarts = 0;
+    private int metricsPort = MetricsEndpoint.DEFAULT_SERVER_PORT;
+    private Metrics metrics;
+    private String mbeanName;
+    private Histogram decodeTime;
+    private Histogram encodeTime;
+    private Histogram frameBytes;
+    private Histogram sendTime;
+    private Histogram pacingLag;
+    private Histogram sourceSwitchWait;
 
     static {
         // Tắt log không cần thiết của FFmpeg
@@ -49,12 +151,52 @@ public class VideoServer {
     }
 
     public VideoServer(String videoPath, String serverIp, int port) {
-        this.videoPath = videoPath;
+        this(videoPath, serverIp, port, false);
+    }
+
+    public VideoServer(String videoPath, String serverIp, int port, boolean passthrough) {
+        this(videoPath, serverIp, port, passthrough, false);
+    }
+
+    // headless: không tạo cửa sổ điều khiển/preview, dùng khi chạy nhiều kênh trong ChannelManager
+    public VideoServer(String videoPath, String serverIp, int port, boolean passthrough, boolean headless) {
+        this(List.of(videoPath), serverIp, port, passthrough, headless);
+    }
+
+    // Phát lần lượt các file của playlist không ngắt quãng: nguồn kế tiếp được mở và giải mã sẵn trong lúc
+    // nguồn hiện tại đang phát. Chỉ dùng với chế độ mã hóa JPEG trực tiếp (không passthrough, không cache gói)
+    public VideoServer(List<String> playlist, String serverIp, int port, boolean passthrough, boolean headless) {
+        this.videoPath = playlist.get(0);
+        this.playlist = playlist.size() > 1 ? List.copyOf(playlist) : null;
         this.serverIp = serverIp;
         this.port = port;
+        this.passthrough = passthrough;
+        this.headless = headless;
+        this.layers = StreamLayer.single(port);
+        this.channelName = new File(this.videoPath).getName();
         this.isRunning = new AtomicBoolean(true);
         this.isPaused = new AtomicBoolean(false);
-        setupServerWindow();
+        this.sessions = new SessionRegistry(SESSION_TIMEOUT_MILLIS, new SessionRegistry.Listener() {
+            @Override
+            public void onSessionStart(ClientSession session) {
+                updateConnectedClients();
+                synchronized (viewerSignal) {
+                    viewerSignal.notifyAll();
+                }
+            }
+
+            @Override
+            public void onSessionEnd(ClientSession session, boolean expired) {
+                if (expired) {
+                    System.out.println("Phiên hết hạn: " + session.getAddress().getHostAddress());
+                }
+                releaseClient(session.getAddress());
+                updateConnectedClients();
+            }
+        });
+        if (!headless) {
+            setupServerWindow();
+        }
     }
 
     private void setupServerWindow() {
@@ -71,10 +213,25 @@ public class VideoServer {
             previewView = new ImageView();
             previewView.setPreserveRatio(true);
 
+            // Preview lấy frame mới nhất từ mailbox, không qua mã hóa JPEG
+            previewTimer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    FrameMailbox.Surface surface = previewMailbox.takeLatest();
+                    if (surface == null) return;
+
+                    surface.markDirty();
+                    if (previewView.getImage() != surface.getImage()) {
+                        previewView.setImage(surface.getImage());
+                    }
+                }
+            };
+            previewTimer.start();
+
             // Lấy kích thước video và thiết lập preview
             Thread videoSizeThread = new Thread(() -> {
                 try {
-                    FFmpegFrameGrabber tempGrabber = new FFmpegFrameGrabber(videoPath);
+                    FFmpegFrameGrabber tempGrabber = createGrabber(videoPath);
                     tempGrabber.start();
 
                     double videoWidth = tempGrabber.getImageWidth();
@@ -122,6 +279,20 @@ public class VideoServer {
             statusLabel = new Label("Trạng thái: Đang khởi động...");
             connectedClientsLabel = new Label("Số người xem: 0");
 
+            // Tỉ lệ gói sửa lỗi FEC, chỉnh được khi đang phát
+            Label fecLabel = new Label("FEC: " + fecOverhead + "%");
+            Slider fecSlider = new Slider(0, 50, fecOverhead);
+            fecSlider.setMaxWidth(200);
+            fecSlider.valueProperty().addListener((obs, oldValue, newValue) -> {
+                int percent = newValue.intValue();
+                fecLabel.setText("FEC: " + percent + "%");
+                setFecOverhead(percent);
+            });
+
+            HBox fecControls = new HBox(10);
+            fecControls.setAlignment(Pos.CENTER);
+            fecControls.getChildren().addAll(fecLabel, fecSlider);
+
             playPauseButton.setOnAction(e -> togglePlayPause());
             stopButton.setOnAction(e -> stopServer());
 
@@ -135,6 +306,7 @@ public class VideoServer {
             root.getChildren().addAll(
                     previewView,
                     controls,
+                    fecControls,
                     statusLabel,
                     connectedClientsLabel
             );
@@ -150,60 +322,765 @@ public class VideoServer {
     }
 
     public void streamVideo() {
-        Thread streamThread = new Thread(() -> {
+        Thread streamThread = newThread("stream", () -> {
             try {
                 initializeNetwork();
                 initializeVideo();
-                startControlThread();
+                initializeMetrics();
+                for (LayerOutput output : outputs) {
+                    output.pacer = new PacketPacer(maxBitrate, grabber.getFrameRate());
+                    output.pacer.setLagHistogram(pacingLag);
+                }
 
-                Frame frame;
-                Java2DFrameConverter converter = new Java2DFrameConverter();
-                int frameNumber = 0;
-                long lastPreviewUpdate = 0;
-                final long PREVIEW_UPDATE_INTERVAL = 100;
+                AVStream videoStream = grabber.getFormatContext().streams(grabber.getVideoStream());
+                if (passthrough && videoStream.codecpar().codec_id() == avcodec.AV_CODEC_ID_H264) {
+                    // H.264 gốc chỉ có một lớp, các lớp phụ không được phát
+                    outputs = List.of(outputs.get(0));
+                    if (nextSource != null) {
+                        // Mỗi file cần bộ lọc Annex B và tham số giải mã riêng, client không đổi được giữa chừng
+                        System.err.println("Playlist không dùng được với H.264 passthrough, chỉ phát lặp file đầu");
+                        nextSource.cancel();
+                        nextSource = null;
+                    }
+                    startControlThread();
+                    streamPackets(videoStream);
+                } else {
+                    if (passthrough) {
+                        System.err.println("Video không phải H.264, chuyển sang chế độ mã hóa JPEG");
+                    }
+                    startControlThread();
+                    streamFrames();
+                }
+            } catch (Exception e) {
+                updateStatus("Lỗi: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                cleanup();
+            }
+        });
 
-                updateStatus("Đang phát");
+        streamThread.start();
+    }
 
-                while (isRunning.get()) {
-                    if (isPaused.get()) {
-                        Thread.sleep(50);
-                        continue;
+    // Phát trực tiếp (giải mã + mã hóa); với cache gói, các vòng lặp sau phát từ cache cho tới khi file nguồn đổi
+    private void streamFrames() throws IOException, InterruptedException {
+        int frameNumber = 0;
+        while (isRunning.get()) {
+            PacketCache cache = loopCache ? readyPacketCache() : null;
+            if (cache == null) {
+                frameNumber = streamLive(frameNumber);
+                continue;
+            }
+
+            frameNumber = streamCached(cache, frameNumber);
+            if (isRunning.get()) {
+                // File nguồn đã đổi: mở lại, phát trực tiếp từ đầu trong lúc dựng lại cache
+                restartGrabber();
+            }
+        }
+    }
+
+    // Trả về khi dừng phát, hoặc khi hết một vòng video và cache gói đã sẵn sàng; kết quả là số frame kế tiếp
+    private int streamLive(int firstFrameNumber) throws IOException, InterruptedException {
+        Frame frame;
+        Java2DFrameConverter converter = new Java2DFrameConverter();
+        long lastPreviewUpdate = 0;
+        final long PREVIEW_UPDATE_INTERVAL = 100;
+
+        // Mỗi lớp có pipeline riêng chạy song song; lớp gốc điều chỉnh chất lượng tự động, các lớp phụ cố định.
+        // Số luồng mã hóa chia theo diện tích ảnh của lớp
+        for (LayerOutput output : outputs) {
+            StreamLayer layer = output.layer;
+            int threads = Math.max(1, (int) Math.ceil(encoderThreads * layer.getScale() * layer.getScale()));
+            output.pipeline = new EncodePipeline(threads, threads * 2, dropPolicy,
+                    (data, length, frameNumber, flags) -> sendFrame(output, data, length, frameNumber, flags),
+                    layer.getId() == 0 ? qualityController : layer);
+            if (deltaMode) {
+                output.pipeline.setDeltaMode(deltaRefreshInterval);
+            }
+            output.pipeline.setThreadFactory(threadFactory);
+            output.pipeline.setHistograms(encodeTime, frameBytes);
+            output.pipeline.setFirstFrameNumber(firstFrameNumber);
+            output.pipeline.start();
+        }
+        EncodePipeline pipeline = outputs.get(0).pipeline;
+
+        PresentationClock clock = new PresentationClock();
+        long frameIntervalNanos = (long) (1_000_000_000L / grabber.getFrameRate());
+        long skippedFrames = 0;
+        long lastTimestamp = 0;
+        long lastStatsTime = System.currentTimeMillis();
+        long lastSentFrames = 0;
+
+        updateStatus("Đang phát");
+
+        try {
+            while (isRunning.get()) {
+                if (isPaused.get()) {
+                    Thread.sleep(50);
+                    clock.reset();
+                    continue;
+                }
+                if (idleWhenUnwatched && sessions.size() == 0) {
+                    // Mọi frame JPEG đều giải mã độc lập nên không cần lùi về keyframe khi giữ nguyên vị trí
+                    discardPredecodedFrames();
+                    waitForViewers(grabber.getTimestamp(), false);
+                    clock.reset();
+                    continue;
+                }
+                long seek = pendingSeekMicros;
+                if (seek >= 0) {
+                    pendingSeekMicros = -1;
+                    discardPredecodedFrames();
+                    grabber.setTimestamp(nearestKeyframeMicros(seek));
+                    clock.reset();
+                    continue;
+                }
+                int speed = trickSpeed;
+                if (speed != 0) {
+                    discardPredecodedFrames();
+                    BufferedImage image = trickPlayStep(speed, frameIntervalNanos / 1000, converter);
+                    if (image != null && !headless) {
+                        updatePreview(image);
                     }
+                    clock.reset();
+                    continue;
+                }
 
-                    frame = grabber.grab();
-                    if (frame == null) {
-                        grabber.setTimestamp(0);
+                long grabStart = System.nanoTime();
+                boolean predecoded = !predecodedFrames.isEmpty();
+                frame = predecoded ? predecodedFrames.poll() : grabber.grab();
+                long grabNanos = System.nanoTime() - grabStart;
+                busyNanos.addAndGet(grabNanos);
+                if (frame == null) {
+                    if (loopCache && packetCache != null) {
+                        break;
+                    }
+                    if (nextSource != null) {
+                        switchSource(lastTimestamp, frameIntervalNanos / 1000);
+                        frameIntervalNanos = (long) (1_000_000_000L / grabber.getFrameRate());
                         continue;
                     }
+                    grabber.setTimestamp(0);
+                    continue;
+                }
 
+                try {
                     if (frame.image != null) {
+                        lastTimestamp = frame.timestamp;
+                        // Quá tải thì bỏ frame thay vì làm chậm cả luồng phát
+                        long delay = clock.delayNanos(frame.timestamp + timelineOffsetMicros);
+                        if (delay < -frameIntervalNanos) {
+                            skippedFrames++;
+                            continue;
+                        }
+                        PresentationClock.sleepNanos(delay);
+                        positionMicros = frame.timestamp;
+
+                        // Giảm tốc độ khung hình khi mạng kém: chỉ lớp gốc bỏ bớt frame theo tỉ lệ, các lớp phụ
+                        // vẫn nhận đủ. Không lớp nào cần frame này thì khỏi chuyển đổi
+                        boolean wanted = false;
+                        for (LayerOutput output : outputs) {
+                            output.frameCredit += output.layer.getId() == 0 ? qualityController.getFrameRatio() : 1.0;
+                            wanted |= output.frameCredit >= 1;
+                        }
+                        if (!wanted) {
+                            continue;
+                        }
+
+                        // Chỉ chuyển đổi một lần, dùng chung cho preview và pipeline
+                        long convertStart = System.nanoTime();
+                        BufferedImage image = converter.convert(frame);
+                        long convertNanos = System.nanoTime() - convertStart;
+                        busyNanos.addAndGet(convertNanos);
+                        decodeTime.record(grabNanos + convertNanos);
+
                         long currentTime = System.currentTimeMillis();
-                        if (currentTime - lastPreviewUpdate >= PREVIEW_UPDATE_INTERVAL) {
-                            updatePreview(frame, converter);
+                        if (!headless && currentTime - lastPreviewUpdate >= PREVIEW_UPDATE_INTERVAL) {
+                            updatePreview(image);
                             lastPreviewUpdate = currentTime;
                         }
 
-                        sendFrame(frame, frameNumber++, converter);
+                        // Luồng này chỉ giải mã một lần; mã hóa và gửi của từng lớp chạy song song trong pipeline
+                        for (LayerOutput output : outputs) {
+                            if (output.frameCredit >= 1) {
+                                output.frameCredit -= 1;
+                                output.pipeline.submit(image);
+                            } else {
+                                output.pipeline.skip();
+                            }
+                        }
 
-                        Thread.sleep(Math.max(1, (long)(1000/grabber.getFrameRate())));
+                        if (currentTime - lastStatsTime >= 1000) {
+                            long sent = pipeline.getSentFrames();
+                            double fps = (sent - lastSentFrames) * 1000.0 / (currentTime - lastStatsTime);
+                            qualityController.update(frameIntervalNanos / 1_000_000.0);
+                            String delta = "";
+                            if (deltaMode) {
+                                long saved = getDeltaBytesSaved();
+                                delta = String.format(", delta tiết kiệm %.0f%%", saved * 100.0 / Math.max(1, saved + getBytesSent()));
+                            }
+                            updateStatus(String.format("Đang phát - %.1f fps, bỏ %d frame, gửi lại %d gói, chất lượng %.0f%% x%.2f%s",
+                                    fps, pipeline.getDroppedFrames() + skippedFrames, retransmitService.getPacketsResent(),
+                                    qualityController.getQuality() * 100, qualityController.getScale(), delta));
+                            lastSentFrames = sent;
+                            lastStatsTime = currentTime;
+                        }
+                    }
+                } finally {
+                    // Bản sao giải mã sẵn có bộ nhớ riêng; ảnh đã được chép sang BufferedImage khi chuyển đổi
+                    if (predecoded) {
+                        frame.close();
                     }
                 }
-            } catch (Exception e) {
-                updateStatus("Lỗi: " + e.getMessage());
-                e.printStackTrace();
-            } finally {
-                cleanup();
+            }
+        } finally {
+            for (LayerOutput output : outputs) {
+                output.pipeline.stop();
+            }
+        }
+        return pipeline.getNextFrameNumber();
+    }
+
+    // Mở trước nguồn đứng sau nguồn hiện tại trong playlist
+    private void prefetchNextSource() {
+        nextSource = new SourcePrefetcher(playlist.get((playlistIndex + 1) % playlist.size()),
+                task -> newThread("prefetch", task));
+    }
+
+    // Hết nguồn hiện tại: chuyển sang nguồn kế tiếp đã mở sẵn. Mốc thời gian được nối tiếp để frame đầu của nguồn
+    // mới đến hạn đúng một khoảng frame sau frame cuối của nguồn cũ, đồng hồ trình chiếu không phải đồng bộ lại
+    private void switchSource(long lastTimestamp, long frameIntervalMicros) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        SourcePrefetcher.PreparedSource next;
+        try {
+            next = nextSource.await();
+        } catch (IOException e) {
+            // Bỏ nguồn lỗi, lần gọi sau sẽ thử nguồn tiếp theo
+            System.err.println(e.getMessage() + ", bỏ qua");
+            playlistIndex = (playlistIndex + 1) % playlist.size();
+            prefetchNextSource();
+            return;
+        }
+        long waitNanos = System.nanoTime() - waitStart;
+        sourceSwitchWait.record(waitNanos);
+
+        FFmpegFrameGrabber previous = grabber;
+        timelineOffsetMicros += lastTimestamp + frameIntervalMicros - next.firstTimestamp();
+        grabber = next.grabber;
+        frameIndex = next.frameIndex;
+        discardPredecodedFrames();
+        predecodedFrames = next.frames;
+        positionMicros = next.firstTimestamp();
+        playlistIndex = (playlistIndex + 1) % playlist.size();
+        prefetchNextSource();
+
+        // Đóng grabber cũ trên luồng nền, việc này cũng có thể mất vài chục ms
+        newThread("grabber-close", () -> {
+            try {
+                previous.stop();
+                previous.release();
+            } catch (FFmpegFrameGrabber.Exception e) {
+                System.err.println("Lỗi khi đóng grabber: " + e.getMessage());
+            }
+        }).start();
+        System.out.printf("Chuyển sang %s (%d/%d), chờ %.1f ms%n", new File(next.path).getName(),
+                playlistIndex + 1, playlist.size(), waitNanos / 1e6);
+    }
+
+    // Frame giải mã sẵn là bản sao có bộ nhớ native riêng, bỏ thì phải đóng
+    private void discardPredecodedFrames() {
+        Frame frame;
+        while ((frame = predecodedFrames.poll()) != null) {
+            frame.close();
+        }
+    }
+
+    // Tua khi phát trực tiếp: chỉ giải mã keyframe. Mỗi bước nhảy tới keyframe kế tiếp theo chiều tua, cách vị trí
+    // hiện tại ít nhất |speed| frame, và giữ frame đó trong |Δpts| / |speed|. Tới cuối (hoặc về đầu) thì phát
+    // tiếp bình thường từ đầu video
+    private BufferedImage trickPlayStep(int speed, long frameIntervalMicros, Java2DFrameConverter converter)
+            throws IOException, InterruptedException {
+        long stepStart = System.nanoTime();
+        long from = positionMicros;
+        long minStep = Math.abs(speed) * frameIntervalMicros;
+        long target = -1;
+        if (speed > 0) {
+            target = frameIndex.keyframeAfter(from + minStep - 1);
+        } else if (from - minStep >= 0) {
+            target = frameIndex.keyframeAtOrBefore(from - minStep);
+        }
+        if (target < 0 || (speed < 0 && target >= from)) {
+            trickSpeed = 0;
+            grabber.setTimestamp(0);
+            positionMicros = 0;
+            updateStatus("Đang phát");
+            return null;
+        }
+
+        grabber.setTimestamp(target);
+        Frame frame = grabber.grabImage();
+        if (frame == null) {
+            trickSpeed = 0;
+            return null;
+        }
+        BufferedImage image = converter.convert(frame);
+        long decodeNanos = System.nanoTime() - stepStart;
+        busyNanos.addAndGet(decodeNanos);
+        decodeTime.record(decodeNanos);
+        positionMicros = target;
+        for (LayerOutput output : outputs) {
+            output.pipeline.submit(image);
+        }
+        updateStatus(String.format("Đang tua %s x%d - %.1f giây", speed > 0 ? "nhanh" : "lùi", Math.abs(speed),
+                target / 1e6));
+
+        PresentationClock.sleepNanos(Math.abs(target - from) * 1000 / Math.abs(speed) - (System.nanoTime() - stepStart));
+        return image;
+    }
+
+    // Phát từ PacketCache: không giải mã, không mã hóa. Mỗi lớp có luồng gửi riêng như khi phát trực tiếp;
+    // luồng gửi còn bận với frame trước thì frame mới bị bỏ. Chất lượng cố định theo cấu hình lớp lúc dựng cache.
+    // Trả về khi dừng phát hoặc khi file nguồn đã đổi (kiểm tra ở cuối mỗi vòng)
+    private int streamCached(PacketCache cache, int firstFrameNumber) throws InterruptedException {
+        List<BlockingQueue<long[]>> queues = new ArrayList<>();
+        List<Thread> senders = new ArrayList<>();
+        for (int layer = 0; layer < outputs.size(); layer++) {
+            LayerOutput output = outputs.get(layer);
+            int layerIndex = layer;
+            BlockingQueue<long[]> queue = new ArrayBlockingQueue<>(2);
+            queues.add(queue);
+            Thread sender = newThread("cache-sender-" + layer, () -> {
+                try {
+                    while (true) {
+                        long[] next = queue.take();
+                        int index = (int) next[1];
+                        int frameNumber = (int) next[0];
+                        long start = System.nanoTime();
+                        if (frameListener != null) {
+                            frameListener.onFrameSent(output.layer.getId(), frameNumber, start);
+                        }
+                        output.sender.sendDatagrams(cache.packets(index, layerIndex), cache.packetCount(index, layerIndex),
+                                frameNumber, output.pacer);
+                        sendTime.record(System.nanoTime() - start);
+                    }
+                } catch (InterruptedException e) {
+                    // Kết thúc phát từ cache
+                } catch (IOException e) {
+                    if (isRunning.get()) {
+                        System.err.println("Lỗi gửi từ cache: " + e.getMessage());
+                    }
+                }
+            });
+            senders.add(sender);
+            sender.start();
+        }
+
+        PresentationClock clock = new PresentationClock();
+        long frameIntervalNanos = (long) (1_000_000_000L / cache.getFrameRate());
+        int frameNumber = firstFrameNumber;
+        int index = 0;
+        long lastStatsTime = System.currentTimeMillis();
+        int lastFrameNumber = frameNumber;
+        updateStatus("Đang phát từ cache gói");
+
+        try {
+            while (isRunning.get()) {
+                if (isPaused.get()) {
+                    Thread.sleep(50);
+                    clock.reset();
+                    continue;
+                }
+                if (idleWhenUnwatched && sessions.size() == 0) {
+                    long idleNanos = awaitViewers();
+                    if (liveClock && idleNanos > 0 && cache.getFrameCount() > 0) {
+                        long length = cache.getPtsMicros(cache.getFrameCount() - 1) + (long) (1_000_000 / cache.getFrameRate());
+                        index = cache.frameAt((cache.getPtsMicros(Math.min(index, cache.getFrameCount() - 1))
+                                + idleNanos / 1000) % Math.max(1, length));
+                    }
+                    updateStatus("Đang phát từ cache gói");
+                    clock.reset();
+                    continue;
+                }
+                long seek = pendingSeekMicros;
+                if (seek >= 0) {
+                    // Frame trong cache là JPEG độc lập nên nhảy thẳng tới frame tại mốc
+                    pendingSeekMicros = -1;
+                    index = cache.frameAt(seek);
+                    clock.reset();
+                }
+                if (index < 0) {
+                    // Tua lùi về tới đầu
+                    index = 0;
+                    trickSpeed = 0;
+                }
+                if (index >= cache.getFrameCount()) {
+                    trickSpeed = 0;
+                    if (cache.isStale()) {
+                        System.out.println("File nguồn đã thay đổi, bỏ cache gói " + cache.getFile().getName());
+                        return frameNumber;
+                    }
+                    index = 0;
+                    if (cache.getFrameCount() == 0) {
+                        Thread.sleep(50);
+                        continue;
+                    }
+                }
+
+                // Tua từ cache không tốn giải mã: gửi một trên |speed| frame theo đúng nhịp frame gốc
+                int speed = trickSpeed;
+                if (speed != 0) {
+                    PresentationClock.sleepNanos(frameIntervalNanos);
+                    clock.reset();
+                } else {
+                    long delay = clock.delayNanos(cache.getPtsMicros(index));
+                    if (delay < -frameIntervalNanos) {
+                        index++;
+                        cachedFramesDropped.incrementAndGet();
+                        continue;
+                    }
+                    PresentationClock.sleepNanos(delay);
+                }
+                positionMicros = cache.getPtsMicros(index);
+
+                long[] next = {frameNumber, index};
+                for (BlockingQueue<long[]> queue : queues) {
+                    if (!queue.offer(next)) {
+                        cachedFramesDropped.incrementAndGet();
+                    }
+                }
+                frameNumber++;
+                index += speed != 0 ? speed : 1;
+
+                long currentTime = System.currentTimeMillis();
+                if (currentTime - lastStatsTime >= 1000) {
+                    double fps = (frameNumber - lastFrameNumber) * 1000.0 / (currentTime - lastStatsTime);
+                    updateStatus(String.format("Đang phát từ cache gói - %.1f fps, bỏ %d frame, gửi lại %d gói",
+                            fps, cachedFramesDropped.get(), retransmitService.getPacketsResent()));
+                    lastFrameNumber = frameNumber;
+                    lastStatsTime = currentTime;
+                }
+            }
+        } finally {
+            for (Thread sender : senders) {
+                sender.interrupt();
+            }
+            // Chờ luồng gửi dừng hẳn rồi mới bỏ ánh xạ cache chúng đang đọc
+            boolean interrupted = false;
+            for (Thread sender : senders) {
+                while (sender.isAlive()) {
+                    try {
+                        sender.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            cache.close();
+            packetCache = null;
+        }
+        return frameNumber;
+    }
+
+    // Cache hợp lệ nếu đã có; nếu chưa thì dựng nền (một lần) và tiếp tục phát trực tiếp trong lúc chờ
+    private PacketCache readyPacketCache() {
+        PacketCache cache = packetCache;
+        if (cache != null && !cache.isStale()) {
+            return cache;
+        }
+        if (cache != null) {
+            cache.close();
+        }
+        packetCache = null;
+        if (cacheBuildThread != null && cacheBuildThread.isAlive()) {
+            return null;
+        }
+        if (!new File(videoPath).isFile()) {
+            System.err.println("Cache gói chỉ dùng được với file video, bỏ qua");
+            loopCache = false;
+            return null;
+        }
+
+        try {
+            cache = PacketCache.open(videoPath, layers, fecOverhead);
+        } catch (IOException e) {
+            System.err.println("Không thể mở cache gói: " + e.getMessage());
+        }
+        if (cache != null) {
+            System.out.println("Dùng cache gói " + cache.getFile().getName() + " (" + cache.getFrameCount() + " frame)");
+            packetCache = cache;
+            return cache;
+        }
+
+        PacketCacheBuilder builder = new PacketCacheBuilder(videoPath, layers, fecOverhead, encoderThreads, threadFactory);
+        cacheBuildThread = newThread("cache-build", () -> {
+            try {
+                packetCache = builder.build();
+            } catch (InterruptedException e) {
+                // Server dừng trong lúc dựng
+            } catch (IOException e) {
+                System.err.println(e.getMessage() + ", tắt cache gói");
+                loopCache = false;
             }
         });
+        cacheBuildThread.start();
+        return null;
+    }
 
-        streamThread.setDaemon(true);
-        streamThread.start();
+    private void restartGrabber() throws FFmpegFrameGrabber.Exception {
+        grabber.stop();
+        grabber.release();
+        grabber = createGrabber(videoPath);
+        grabber.start();
+    }
+
+    // Chế độ passthrough: gửi thẳng access unit H.264 của file, không giải mã/mã hóa lại
+    private void streamPackets(AVStream videoStream) throws IOException, InterruptedException {
+        int videoIndex = grabber.getVideoStream();
+        int[] frameNumber = {0};
+        double timeBase = avutil.av_q2d(videoStream.time_base());
+        PresentationClock clock = new PresentationClock();
+        LayerOutput output = outputs.get(0);
+        long startPts = videoStream.start_time() != avutil.AV_NOPTS_VALUE ? videoStream.start_time() : 0;
+
+        updateStatus("Đang phát (H.264 passthrough)");
+
+        try (AnnexBFilter filter = new AnnexBFilter(videoStream)) {
+            while (isRunning.get()) {
+                if (isPaused.get()) {
+                    Thread.sleep(50);
+                    clock.reset();
+                    continue;
+                }
+                if (idleWhenUnwatched && sessions.size() == 0) {
+                    // Client H.264 cần keyframe để giải mã nên luôn bắt đầu lại từ keyframe
+                    waitForViewers(positionMicros, true);
+                    clock.reset();
+                    continue;
+                }
+                long seek = pendingSeekMicros;
+                if (seek >= 0) {
+                    pendingSeekMicros = -1;
+                    seekPackets(seek);
+                    clock.reset();
+                    continue;
+                }
+                if (trickSpeed != 0) {
+                    // Bỏ qua packet giữa các keyframe sẽ làm hỏng luồng H.264 của client
+                    trickSpeed = 0;
+                    System.err.println("Chế độ H.264 passthrough không hỗ trợ tua, chỉ hỗ trợ SEEK");
+                }
+
+                long grabStart = System.nanoTime();
+                AVPacket packet = grabber.grabPacket();
+                long grabNanos = System.nanoTime() - grabStart;
+                busyNanos.addAndGet(grabNanos);
+                decodeTime.record(grabNanos);
+                if (packet == null) {
+                    seekPackets(0);
+                    continue;
+                }
+                if (packet.stream_index() != videoIndex) {
+                    continue;
+                }
+
+                // Không thể bỏ packet H.264 nên khi trễ chỉ gửi ngay, không chờ
+                long pts = packet.dts() != avutil.AV_NOPTS_VALUE ? packet.dts() : packet.pts();
+                if (pts != avutil.AV_NOPTS_VALUE) {
+                    PresentationClock.sleepNanos(clock.delayNanos((long) (pts * timeBase * 1_000_000)));
+                    positionMicros = (long) ((pts - startPts) * timeBase * 1_000_000);
+                }
+
+                filter.filter(packet, (data, length, keyFrame) -> {
+                    int flags = StreamProtocol.PAYLOAD_H264 | (keyFrame ? StreamProtocol.FLAG_KEYFRAME : 0);
+                    sendFrame(output, data, length, frameNumber[0]++, flags);
+                });
+            }
+        }
+    }
+
+    // Không có người xem: ngừng giải mã và mã hóa đến khi có phiên mới. Vị trí được giữ nguyên,
+    // hoặc chạy tiếp theo đồng hồ thực nếu là kênh "trực tiếp"; khi có người xem thì khởi động lại
+    // từ keyframe gần nhất trước vị trí đích thay vì giải mã tới đúng mốc
+    private void waitForViewers(long positionMicros, boolean keyframeAligned)
+            throws InterruptedException, FFmpegFrameGrabber.Exception {
+        long idleNanos = awaitViewers();
+        if (idleNanos < 0) {
+            return;
+        }
+
+        long target = positionMicros;
+        if (liveClock) {
+            target += idleNanos / 1000;
+            long length = grabber.getLengthInTime();
+            if (length > 0) {
+                target %= length;
+            }
+        }
+        if (keyframeAligned) {
+            // Passthrough: packet đầu tiên gửi đi phải là keyframe
+            seekPackets(target);
+        } else if (liveClock) {
+            grabber.setTimestamp(nearestKeyframeMicros(target));
+        }
+        updateStatus("Đang phát");
+    }
+
+    // Chờ tới khi có phiên mới; trả về thời gian đã nghỉ (ns), hoặc -1 nếu server dừng trong lúc chờ
+    private long awaitViewers() throws InterruptedException {
+        long idleStart = System.nanoTime();
+        updateStatus("Không có người xem - tạm ngừng giải mã");
+
+        synchronized (viewerSignal) {
+            while (isRunning.get() && idleWhenUnwatched && sessions.size() == 0) {
+                viewerSignal.wait(500);
+            }
+        }
+        if (!isRunning.get()) {
+            return -1;
+        }
+        warmStarts++;
+        return System.nanoTime() - idleStart;
+    }
+
+    // Passthrough: seek ở mức demuxer tới keyframe gần nhất không sau mốc. grabber.setTimestamp giải mã tiến tới
+    // mốc nên tiêu mất packet keyframe, packet đầu tiên gửi đi thường không phải keyframe và client phải chờ GOP sau
+    private void seekPackets(long targetMicros) throws FFmpegFrameGrabber.Exception {
+        AVFormatContext context = grabber.getFormatContext();
+        int videoIndex = grabber.getVideoStream();
+        AVStream stream = context.streams(videoIndex);
+        double timeBase = avutil.av_q2d(stream.time_base());
+        long startPts = stream.start_time() != avutil.AV_NOPTS_VALUE ? stream.start_time() : 0;
+        long keyframeMicros = nearestKeyframeMicros(targetMicros);
+        long targetPts = startPts + (long) (keyframeMicros / 1_000_000.0 / timeBase);
+        if (avformat.av_seek_frame(context, videoIndex, targetPts, avformat.AVSEEK_FLAG_BACKWARD) < 0) {
+            System.err.println("Demuxer không seek được, giải mã tới mốc " + keyframeMicros + " µs");
+            grabber.setTimestamp(keyframeMicros);
+        }
+    }
+
+    // Tìm keyframe gần nhất không sau mốc trong FrameIndex, hoặc trong chỉ mục của demuxer nếu chưa có;
+    // không có chỉ mục nào thì dùng nguyên mốc
+    private long nearestKeyframeMicros(long targetMicros) {
+        if (frameIndex != null) {
+            return frameIndex.keyframeAtOrBefore(targetMicros);
+        }
+        AVStream stream = grabber.getFormatContext().streams(grabber.getVideoStream());
+        double timeBase = avutil.av_q2d(stream.time_base());
+        long startPts = stream.start_time() != avutil.AV_NOPTS_VALUE ? stream.start_time() : 0;
+        long targetPts = startPts + (long) (targetMicros / 1_000_000.0 / timeBase);
+
+        AVIndexEntry entry = avformat.avformat_index_get_entry_from_timestamp(stream, targetPts, avformat.AVSEEK_FLAG_BACKWARD);
+        if (entry == null || (entry.flags() & avformat.AVINDEX_KEYFRAME) == 0) {
+            return targetMicros;
+        }
+        return Math.max(0, (long) ((entry.timestamp() - startPts) * timeBase * 1_000_000));
+    }
+
+    // Thời gian gửi một frame gồm cả thời gian chờ của bộ điều tốc
+    private void sendFrame(LayerOutput output, byte[] data, int length, int frameNumber, int flags)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        if (frameListener != null) {
+            frameListener.onFrameSent(output.layer.getId(), frameNumber, start);
+        }
+        output.sender.send(data, length, frameNumber, flags, output.pacer);
+        sendTime.record(System.nanoTime() - start);
+    }
+
+    // Bộ đo của kênh: xuất qua JMX và endpoint Prometheus trên localhost
+    private void initializeMetrics() {
+        metrics = new Metrics(Metrics.label("channel", channelName));
+        decodeTime = metrics.histogram("videoserver_decode_seconds", "Thời gian đọc và giải mã một frame", 1e-9);
+        encodeTime = metrics.histogram("videoserver_encode_seconds", "Thời gian mã hóa JPEG một frame", 1e-9);
+        frameBytes = metrics.histogram("videoserver_frame_bytes", "Kích thước frame sau mã hóa", 1);
+        sendTime = metrics.histogram("videoserver_send_seconds", "Thời gian gửi hết các gói của một frame", 1e-9);
+        pacingLag = metrics.histogram("videoserver_pacing_lag_seconds", "Độ trễ gửi gói so với lịch của bộ điều tốc", 1e-9);
+        sourceSwitchWait = metrics.histogram("videoserver_source_switch_wait_seconds",
+                "Thời gian luồng phát phải chờ nguồn kế tiếp của playlist", 1e-9);
+        metrics.counter("videoserver_packets_sent_total", "Số gói đã gửi", () -> {
+            long total = 0;
+            for (LayerOutput output : outputs) {
+                total += output.sender.getPacketsSent();
+            }
+            return total;
+        });
+        metrics.counter("videoserver_bytes_sent_total", "Số byte đã gửi", this::getBytesSent);
+        metrics.counter("videoserver_frames_dropped_total", "Số frame bị bỏ trong pipeline mã hóa", () -> {
+            long total = 0;
+            for (LayerOutput output : outputs) {
+                if (output.pipeline != null) {
+                    total += output.pipeline.getDroppedFrames();
+                }
+            }
+            return total + cachedFramesDropped.get();
+        });
+        metrics.counter("videoserver_nacks_received_total", "Số NACK nhận được", retransmitService::getNacksReceived);
+        metrics.counter("videoserver_packets_resent_total", "Số gói đã gửi lại", retransmitService::getPacketsResent);
+        metrics.counter("videoserver_join_frames_sent_total", "Số frame gửi ngay cho client mới vào", joinFramesSent::get);
+        metrics.counter("videoserver_delta_tile_frames_total", "Số frame chỉ gửi các ô đã đổi (không tính keep-alive)", () -> {
+            long total = 0;
+            for (LayerOutput output : outputs) {
+                if (output.pipeline != null) {
+                    total += output.pipeline.getTileFrames();
+                }
+            }
+            return total;
+        });
+        metrics.counter("videoserver_delta_keepalive_frames_total", "Số frame không đổi chỉ gửi keep-alive", () -> {
+            long total = 0;
+            for (LayerOutput output : outputs) {
+                if (output.pipeline != null) {
+                    total += output.pipeline.getKeepAliveFrames();
+                }
+            }
+            return total;
+        });
+        metrics.counter("videoserver_delta_bytes_saved_total", "Số byte ước lượng tiết kiệm nhờ chế độ delta",
+                this::getDeltaBytesSaved);
+        metrics.counter("videoserver_warm_starts_total", "Số lần khởi động lại sau khi nghỉ", this::getWarmStarts);
+        metrics.gauge("videoserver_sessions", "Số phiên client đang hoạt động", sessions::size);
+        metrics.gauge("videoserver_jpeg_quality", "Chất lượng JPEG hiện tại", qualityController::getQuality);
+        metrics.gauge("videoserver_scale", "Tỉ lệ thu nhỏ hiện tại", qualityController::getScale);
+
+        mbeanName = "com.nguyenquynh:type=VideoServer,channel=" + ObjectName.quote(channelName);
+        metrics.registerMBean(mbeanName);
+        MetricsEndpoint.register(metrics);
+        MetricsEndpoint.start(metricsPort);
     }
 
     private void initializeNetwork() throws IOException {
         try {
-            // Khởi tạo socket cho video streaming
-            socket = new DatagramSocket();
+            // Khởi tạo channel cho video streaming, địa chỉ multicast chỉ phân giải một lần
+            channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            if (multicastInterface != null) {
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, multicastInterface);
+            }
+            multicastAddress = InetAddress.getByName(StreamProtocol.MULTICAST_GROUP);
+            List<LayerOutput> created = new ArrayList<>();
+            for (StreamLayer layer : layers) {
+                PacketSender sender = new PacketSender(channel,
+                        new InetSocketAddress(InetAddress.getByName(layer.getGroup()), layer.getPort()));
+                sender.setFecOverhead(fecOverhead);
+                sender.setKeepLatestFrame(instantJoin);
+                if (retransmitService == null) {
+                    retransmitService = new RetransmitService(channel, sender.getBufferPool());
+                }
+                sender.setRetransmitCache(retransmitService.addLayer(layer.getId(), layer.getPort()));
+                created.add(new LayerOutput(layer, sender));
+            }
+            outputs = created;
+
+            // Chế độ unicast: một DatagramChannel non-blocking dùng chung cho mọi lớp
+            if (unicast) {
+                fanout = new UnicastFanout();
+                for (LayerOutput output : outputs) {
+                    output.sender.setFanout(fanout, output.layer.getId());
+                }
+            }
 
             // Khởi tạo socket cho điều khiển
             controlSocket = new DatagramSocket(port + 1);
@@ -213,6 +1090,10 @@ public class VideoServer {
             System.out.println("Multicast Address: 224.0.0.1");
             System.out.println("Port: " + port);
             System.out.println("Control Port: " + (port + 1));
+            System.out.println("Chế độ: " + (unicast ? "unicast" : "multicast"));
+            for (StreamLayer layer : layers) {
+                System.out.println("Lớp " + layer.getId() + ": " + layer + " - " + layer.getGroup() + ":" + layer.getPort());
+            }
 
             updateStatus("Đã khởi tạo kết nối mạng");
         } catch (IOException e) {
@@ -221,22 +1102,47 @@ public class VideoServer {
     }
 
     private void initializeVideo() throws FFmpegFrameGrabber.Exception {
+        grabber = createGrabber(videoPath);
+        grabber.start();
+        if (new File(videoPath).isFile()) {
+            try {
+                frameIndex = FrameIndex.load(videoPath, grabber);
+            } catch (IOException e) {
+                System.err.println("Không thể dựng chỉ mục frame, tắt SEEK/tua: " + e.getMessage());
+            }
+        }
+        if (playlist != null) {
+            if (loopCache) {
+                System.err.println("Cache gói chỉ dùng khi phát lặp một file, tắt cho playlist");
+                loopCache = false;
+            }
+            prefetchNextSource();
+        }
+        updateStatus("Đã khởi tạo video");
+    }
+
+    // File video, hoặc nguồn tổng hợp "lavfi:<bộ lọc>" để chạy thử không cần file
+    static FFmpegFrameGrabber createGrabber(String videoPath) throws FFmpegFrameGrabber.Exception {
+        if (videoPath.startsWith(SYNTHETIC_PREFIX)) {
+            FFmpegFrameGrabber synthetic = new FFmpegFrameGrabber(videoPath.substring(SYNTHETIC_PREFIX.length()));
+            synthetic.setFormat("lavfi");
+            return synthetic;
+        }
+
         File videoFile = new File(videoPath);
         if (!videoFile.exists() || !videoFile.canRead()) {
             throw new FFmpegFrameGrabber.Exception("Không thể truy cập file video: " + videoPath);
         }
 
-        grabber = new FFmpegFrameGrabber(videoFile);
-        grabber.setOption("threads", "auto");
-        grabber.setOption("preset", "ultrafast");
-        grabber.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-
-        grabber.start();
-        updateStatus("Đã khởi tạo video");
+        FFmpegFrameGrabber fileGrabber = new FFmpegFrameGrabber(videoFile);
+        fileGrabber.setOption("threads", "auto");
+        fileGrabber.setOption("preset", "ultrafast");
+        fileGrabber.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        return fileGrabber;
     }
 
     private void startControlThread() {
-        Thread controlThread = new Thread(() -> {
+        Thread controlThread = newThread("control", () -> {
             try {
                 while (isRunning.get()) {
                     byte[] buffer = new byte[1024];
@@ -244,7 +1150,7 @@ public class VideoServer {
                     controlSocket.receive(packet);
 
                     String message = new String(packet.getData(), 0, packet.getLength());
-                    handleControlMessage(message, packet.getAddress());
+                    handleControlMessage(message, packet.getAddress(), packet.getPort());
                 }
             } catch (Exception e) {
                 if (isRunning.get()) {
@@ -252,116 +1158,458 @@ public class VideoServer {
                 }
             }
         });
-        controlThread.setDaemon(true);
         controlThread.start();
+        sessions.start(task -> newThread("sessions", task));
     }
 
-    private void handleControlMessage(String message, InetAddress clientAddress) {
+    // Tên luồng có tên kênh; luồng từ threadFactory chung (virtual thread của ChannelManager) cũng được đặt tên
+    private Thread newThread(String name, Runnable task) {
+        Thread thread;
+        if (threadFactory != null) {
+            thread = threadFactory.newThread(task);
+        } else {
+            thread = new Thread(task);
+            thread.setDaemon(true);
+        }
+        thread.setName(channelName + "-" + name);
+        return thread;
+    }
+
+    private void handleControlMessage(String message, InetAddress clientAddress, int clientPort) {
+        // Mọi tin của client đã kết nối đều gia hạn phiên
+        ClientSession session = sessions.touch(clientAddress);
+
+        if (message.startsWith("NACK ")) {
+            // NACK không có phiên (địa chỉ lạ hoặc giả mạo) bị bỏ, không gửi lại gói tới địa chỉ chưa từng CONNECT
+            if (session != null) {
+                retransmitService.handleNack(message.substring(5), clientAddress);
+            }
+            return;
+        }
+        if (message.startsWith("SUBSCRIBE ") || message.startsWith("HEARTBEAT")) {
+            // HEARTBEAT mang theo lớp đang xem để phiên đã hết hạn được khôi phục đúng lớp
+            if (message.startsWith("HEARTBEAT")) {
+                session = sessions.connect(clientAddress, clientPort);
+            }
+            int layerId = parseLayerId(message.substring(message.indexOf(' ') + 1));
+            if (session != null && layerId >= 0) {
+                int previousLayer = session.getLayerId();
+                session.setLayerId(layerId);
+                // HEARTBEAT đến mỗi 2 giây: chỉ đăng ký lại khi đổi lớp, hoặc khi phiên vừa được khôi phục
+                // (đăng ký unicast đã bị bỏ lúc phiên hết hạn)
+                if (previousLayer != layerId || (fanout != null && fanout.getLayer(clientAddress) != layerId)) {
+                    subscribe(clientAddress, layerId);
+                }
+                if (message.startsWith("SUBSCRIBE ")) {
+                    sendJoinFrame(clientAddress, layerId);
+                    requestRefresh(layerId);
+                }
+            }
+            return;
+        }
+        if (message.startsWith("SEEK ")) {
+            requestSeek(message.substring(5).trim());
+            return;
+        }
+        if (message.startsWith("FASTFORWARD") || message.startsWith("REWIND")) {
+            int direction = message.startsWith("REWIND") ? -1 : 1;
+            requestTrickPlay(message.substring(message.startsWith("REWIND") ? 6 : 11).trim(), direction);
+            return;
+        }
+        if (message.startsWith("REPORT ")) {
+            QualityController.Report report = qualityController.onReport(clientAddress,
+                    session != null ? session.getLayerId() : -1, message.substring(7));
+            if (session != null) {
+                session.recordReport(report);
+            }
+            return;
+        }
+
         switch (message) {
+            case "LAYERS":
+                sendLayerList(clientAddress, clientPort);
+                break;
+            case "CHANNELS":
+                String channels = directory != null ? directory.get() : describeChannel();
+                sendControlReply("CHANNELS " + channels, clientAddress, clientPort);
+                break;
             case "CONNECT":
-                updateConnectedClients(connectedClients + 1);
+                sessions.connect(clientAddress, clientPort).setLayerId(0);
+                subscribe(clientAddress, 0);
+                sendJoinFrame(clientAddress, 0);
+                requestRefresh(0);
+                break;
+            case "REFRESH":
+                requestRefresh(session != null ? session.getLayerId() : 0);
                 break;
             case "DISCONNECT":
-                updateConnectedClients(Math.max(0, connectedClients - 1));
+                sessions.disconnect(clientAddress);
+                break;
+            case "NORMAL":
+                trickSpeed = 0;
                 break;
         }
     }
 
-    private void togglePlayPause() {
-        isPaused.set(!isPaused.get());
-        Platform.runLater(() -> {
-            playPauseButton.setText(isPaused.get() ? "Tiếp Tục" : "Tạm Dừng");
-            updateStatus(isPaused.get() ? "Đã tạm dừng" : "Đang phát");
-        });
-        sendStatusUpdate(isPaused.get() ? "PAUSED" : "PLAYING");
+    // SEEK <giây> tới mốc tuyệt đối, SEEK +<giây>/-<giây> so với vị trí đang phát. Luồng phát nhảy tới keyframe
+    // gần nhất trước mốc ở vòng lặp kế tiếp và thoát chế độ tua
+    private void requestSeek(String argument) {
+        if (frameIndex == null) {
+            System.err.println("Nguồn không có chỉ mục frame, bỏ qua SEEK");
+            return;
+        }
+        long target;
+        try {
+            target = (long) (Double.parseDouble(argument) * 1_000_000);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (argument.startsWith("+") || argument.startsWith("-")) {
+            target += positionMicros;
+        }
+        trickSpeed = 0;
+        pendingSeekMicros = Math.max(0, Math.min(target, frameIndex.getDurationMicros()));
     }
 
-    private void stopServer() {
-        isRunning.set(false);
-        sendStatusUpdate("STOPPED");
-        Platform.runLater(() -> {
-            if (serverStage != null) {
-                serverStage.close();
+    // FASTFORWARD/REWIND [n]: tua với tốc độ n (mặc định 2), giới hạn trong MIN_TRICK_SPEED..MAX_TRICK_SPEED
+    private void requestTrickPlay(String argument, int direction) {
+        if (frameIndex == null) {
+            System.err.println("Nguồn không có chỉ mục frame, bỏ qua lệnh tua");
+            return;
+        }
+        int speed = MIN_TRICK_SPEED;
+        if (!argument.isEmpty()) {
+            try {
+                speed = Integer.parseInt(argument);
+            } catch (NumberFormatException e) {
+                return;
             }
-        });
+        }
+        trickSpeed = direction * Math.max(MIN_TRICK_SPEED, Math.min(MAX_TRICK_SPEED, speed));
     }
 
-    private void updatePreview(Frame frame, Java2DFrameConverter converter) {
-        if (isPreviewUpdating) return;
-        isPreviewUpdating = true;
-
+    private static int parseLayerId(String value) {
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(converter.convert(frame), "jpg", baos);
-            ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Dọn trạng thái theo client khi phiên kết thúc (DISCONNECT hoặc hết hạn)
+    private void releaseClient(InetAddress clientAddress) {
+        if (fanout != null) {
+            fanout.unsubscribe(clientAddress);
+        }
+        if (retransmitService != null) {
+            retransmitService.removeClient(clientAddress);
+        }
+        qualityController.removeClient(clientAddress);
+    }
 
-            Platform.runLater(() -> {
+    // Chế độ unicast: client nhận lớp đã chọn trên cổng video của lớp đó
+    private void subscribe(InetAddress clientAddress, int layerId) {
+        if (fanout == null) {
+            return;
+        }
+        for (LayerOutput output : outputs) {
+            if (output.layer.getId() == layerId) {
+                fanout.subscribe(clientAddress, layerId, output.layer.getPort());
+                return;
+            }
+        }
+    }
+
+    // Client vừa CONNECT hoặc đổi lớp nhận ngay frame hoàn chỉnh gần nhất của lớp (unicast tới cổng video),
+    // không phải chờ frame kế tiếp hay chờ bù gói mất của frame đang phát dở
+    private void sendJoinFrame(InetAddress clientAddress, int layerId) {
+        if (!instantJoin) {
+            return;
+        }
+        for (LayerOutput output : outputs) {
+            if (output.layer.getId() == layerId) {
                 try {
-                    Image image = new Image(bais);
-                    previewView.setImage(image);
-                } finally {
-                    isPreviewUpdating = false;
+                    InetSocketAddress target = new InetSocketAddress(clientAddress, output.layer.getPort());
+                    if (output.sender.sendLatestFrame(target) != null) {
+                        joinFramesSent.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Lỗi gửi frame cho client mới: " + e.getMessage());
                 }
-            });
-        } catch (Exception e) {
-            isPreviewUpdating = false;
-            System.err.println("Lỗi cập nhật preview: " + e.getMessage());
+                return;
+            }
         }
     }
 
-    private void sendFrame(Frame frame, int frameNumber, Java2DFrameConverter converter) throws IOException, InterruptedException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(converter.convert(frame), "jpg", baos);
-        byte[] frameData = baos.toByteArray();
+    // Chế độ delta: frame kế tiếp của lớp được gửi đầy đủ. Frame gửi ngay khi vào là frame đầy đủ gần nhất, các
+    // frame ô sau nó chỉ ghép được sau frame đầy đủ kế tiếp; client mất frame ô cũng gửi REFRESH
+    private void requestRefresh(int layerId) {
+        if (!deltaMode) {
+            return;
+        }
+        for (LayerOutput output : outputs) {
+            EncodePipeline pipeline = output.pipeline;
+            if (output.layer.getId() == layerId && pipeline != null) {
+                pipeline.requestRefresh();
+                return;
+            }
+        }
+    }
 
-        int numPackets = (int) Math.ceil(frameData.length / (double) PACKET_SIZE);
-        InetAddress multicastAddr = InetAddress.getByName("224.0.0.1");
+    // Trả lời trực tiếp về socket điều khiển của client danh sách lớp đang phát
+    private void sendLayerList(InetAddress clientAddress, int clientPort) {
+        List<StreamLayer> active = new ArrayList<>();
+        for (LayerOutput output : outputs) {
+            active.add(output.layer);
+        }
+        sendControlReply("LAYERS " + StreamLayer.format(active), clientAddress, clientPort);
+    }
+
+    private void sendControlReply(String message, InetAddress clientAddress, int clientPort) {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        try {
+            controlSocket.send(new DatagramPacket(data, data.length, clientAddress, clientPort));
+        } catch (IOException e) {
+            System.err.println("Lỗi gửi phản hồi điều khiển: " + e.getMessage());
+        }
+    }
 
-        for (int i = 0; i < numPackets; i++) {
-            int start = i * PACKET_SIZE;
-            int length = Math.min(PACKET_SIZE, frameData.length - start);
+    // Mô tả kênh cho danh bạ: "tên|group|port|controlPort"
+    public String describeChannel() {
+        StreamLayer base = layers.get(0);
+        return channelName + "|" + base.getGroup() + "|" + base.getPort() + "|" + (port + 1);
+    }
 
-            ByteBuffer headerBuffer = ByteBuffer.allocate(12);
-            headerBuffer.putInt(frameNumber);
-            headerBuffer.putInt(i);
-            headerBuffer.putInt(numPackets);
+    public void setChannelName(String channelName) {
+        this.channelName = channelName.replace('|', '_').replace(';', '_');
+    }
 
-            byte[] packetData = new byte[length + 12];
-            System.arraycopy(headerBuffer.array(), 0, packetData, 0, 12);
-            System.arraycopy(frameData, start, packetData, 12, length);
+    public String getChannelName() {
+        return channelName;
+    }
 
-            DatagramPacket packet = new DatagramPacket(
-                    packetData,
-                    packetData.length,
-                    multicastAddr,
-                    port
-            );
+    // Danh bạ kênh trả lời lệnh CHANNELS; mặc định chỉ có kênh này
+    public void setDirectory(Supplier<String> directory) {
+        this.directory = directory;
+    }
 
-            socket.send(packet);
-            Thread.sleep(1); // Delay nhỏ để tránh nghẽn mạng
+    // Tạo mọi luồng của server (phát, điều khiển, mã hóa, gửi) từ bộ lập lịch chung; phải gọi trước streamVideo()
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    // Thời gian bận của luồng giải mã và các luồng mã hóa, cộng dồn từ lúc phát
+    public long getBusyNanos() {
+        long total = busyNanos.get();
+        for (LayerOutput output : outputs) {
+            if (output.pipeline != null) {
+                total += output.pipeline.getEncodeNanos();
+            }
+        }
+        return total;
+    }
+
+    public long getBytesSent() {
+        long total = 0;
+        for (LayerOutput output : outputs) {
+            total += output.sender.getBytesSent();
+        }
+        return total;
+    }
+
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public double getFrameRate() {
+        return grabber != null ? grabber.getFrameRate() : 0;
+    }
+
+    public boolean isRunning() {
+        return isRunning.get();
+    }
+
+    // Các lớp simulcast sẽ phát; phải gọi trước streamVideo()
+    public void setLayers(List<StreamLayer> layers) {
+        if (!layers.isEmpty()) {
+            this.layers = new ArrayList<>(layers);
+        }
+    }
+
+    // Ngừng giải mã/mã hóa khi không còn người xem, tiếp tục khi có CONNECT
+    public void setIdleWhenUnwatched(boolean idleWhenUnwatched) {
+        this.idleWhenUnwatched = idleWhenUnwatched;
+        synchronized (viewerSignal) {
+            viewerSignal.notifyAll();
+        }
+    }
+
+    // Cổng HTTP localhost cho metrics (dùng chung cả JVM), 0 là tắt; phải gọi trước streamVideo()
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    // Kênh "trực tiếp": khi nghỉ vị trí phát vẫn chạy theo đồng hồ thực
+    public void setLiveClock(boolean liveClock) {
+        this.liveClock = liveClock;
+    }
+
+    public long getWarmStarts() {
+        return warmStarts;
+    }
+
+    // Phát lặp từ cache gói mã hóa sẵn (file .vspc cạnh video) thay vì giải mã/mã hóa lại mỗi vòng;
+    // cache được dựng nền ở vòng đầu. Phải gọi trước streamVideo()
+    public void setLoopCache(boolean loopCache) {
+        this.loopCache = loopCache;
+    }
+
+    // Card mạng phát multicast, ví dụ loopback khi chạy thử trên một máy; phải gọi trước streamVideo()
+    public void setMulticastInterface(NetworkInterface multicastInterface) {
+        this.multicastInterface = multicastInterface;
+    }
+
+    public void setFrameListener(FrameListener frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    // Chỉ mã hóa và gửi các ô thay đổi giữa hai frame (nội dung như slide, quay màn hình), frame không đổi chỉ gửi
+    // keep-alive. Chỉ áp dụng khi giải mã và mã hóa lại JPEG; phải gọi trước streamVideo()
+    public void setDeltaMode(boolean deltaMode) {
+        this.deltaMode = deltaMode;
+    }
+
+    // Số frame ô tối đa giữa hai frame đầy đủ ở chế độ delta
+    public void setDeltaRefreshInterval(int frames) {
+        this.deltaRefreshInterval = Math.max(1, frames);
+    }
+
+    public long getDeltaBytesSaved() {
+        long total = 0;
+        for (LayerOutput output : outputs) {
+            if (output.pipeline != null) {
+                total += output.pipeline.getBytesSaved();
+            }
+        }
+        return total;
+    }
+
+    // Gửi lại frame hoàn chỉnh gần nhất cho client khi CONNECT/SUBSCRIBE (mặc định bật)
+    public void setInstantJoin(boolean instantJoin) {
+        this.instantJoin = instantJoin;
+        for (LayerOutput output : outputs) {
+            output.sender.setKeepLatestFrame(instantJoin);
+        }
+    }
+
+    // Gửi unicast tới từng client đã CONNECT thay vì multicast; phải gọi trước streamVideo()
+    public void setUnicast(boolean unicast) {
+        this.unicast = unicast;
+    }
+
+    public void setEncoderThreads(int encoderThreads) {
+        this.encoderThreads = Math.max(1, encoderThreads);
+    }
+
+    public void setDropPolicy(EncodePipeline.DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    // Giới hạn băng thông gửi của mỗi lớp (bit/giây), 0 là không giới hạn
+    public void setMaxBitrate(long bitsPerSecond) {
+        this.maxBitrate = bitsPerSecond;
+        for (LayerOutput output : outputs) {
+            if (output.pacer != null) {
+                output.pacer.setBitrate(bitsPerSecond);
+            }
         }
     }
 
+    // Giới hạn cho điều chỉnh chất lượng tự động
+    public void setQualityBounds(float minQuality, float maxQuality, double minScale, double minFrameRatio) {
+        qualityController.setBounds(minQuality, maxQuality, minScale, minFrameRatio);
+    }
+
+    // Đổi được khi đang phát: chỉ cập nhật sender, bộ đệm gửi lại và bộ đếm NACK giữ nguyên
+    public void setFecOverhead(int percent) {
+        this.fecOverhead = Math.max(0, percent);
+        for (LayerOutput output : outputs) {
+            output.sender.setFecOverhead(fecOverhead);
+        }
+    }
+
+    private void togglePlayPause() {
+        isPaused.set(!isPaused.get());
+        Platform.runLater(() -> {
+            playPauseButton.setText(isPaused.get() ? "Tiếp Tục" : "Tạm Dừng");
+            updateStatus(isPaused.get() ? "Đã tạm dừng" : "Đang phát");
+        });
+        sendStatusUpdate(isPaused.get() ? "PAUSED" : "PLAYING");
+    }
+
+    public void stopServer() {
+        isRunning.set(false);
+        sendStatusUpdate("STOPPED");
+        // Đóng socket điều khiển ngay để luồng đang chờ receive thoát, không phải đợi gói kế tiếp;
+        // luồng phát đang chờ người xem cũng được đánh thức. Phần còn lại đóng trong cleanup()
+        if (controlSocket != null) {
+            controlSocket.close();
+        }
+        synchronized (viewerSignal) {
+            viewerSignal.notifyAll();
+        }
+        if (headless) {
+            return;
+        }
+        Platform.runLater(() -> {
+            if (serverStage != null) {
+                serverStage.close();
+            }
+        });
+    }
+
+    // Chép thẳng điểm ảnh đã chuyển đổi vào surface của preview
+    private void updatePreview(BufferedImage image) {
+        FrameMailbox.Surface surface = previewMailbox.acquire(image.getWidth(), image.getHeight());
+        PixelConverter.copyToBgra(image, surface.getPixels());
+        previewMailbox.publish(surface, 0);
+    }
+
     private void updateStatus(String status) {
+        this.status = status;
+        if (headless) {
+            return;
+        }
         Platform.runLater(() -> statusLabel.setText("Trạng thái: " + status));
     }
 
-    private void updateConnectedClients(int count) {
-        connectedClients = count;
+    private void updateConnectedClients() {
+        int count = sessions.size();
+        if (headless) {
+            return;
+        }
         Platform.runLater(() -> connectedClientsLabel.setText("Số người xem: " + count));
     }
 
     private void sendStatusUpdate(String status) {
         try {
+            if (channel == null || !channel.isOpen()) {
+                return;
+            }
             byte[] statusData = status.getBytes();
-            InetAddress multicastAddr = InetAddress.getByName("224.0.0.1");
-            DatagramPacket statusPacket = new DatagramPacket(
-                    statusData,
-                    statusData.length,
-                    multicastAddr,
-                    port + 2
-            );
-            socket.send(statusPacket);
+            if (fanout != null) {
+                fanout.sendToClients(statusData, port + 2);
+            } else {
+                channel.send(ByteBuffer.wrap(statusData), new InetSocketAddress(multicastAddress, port + 2));
+            }
         } catch (IOException e) {
             System.err.println("Lỗi gửi cập nhật trạng thái: " + e.getMessage());
         }
@@ -369,6 +1617,22 @@ public class VideoServer {
 
     private void cleanup() {
         isRunning.set(false);
+        sessions.stop();
+        if (cacheBuildThread != null) {
+            cacheBuildThread.interrupt();
+        }
+        if (packetCache != null) {
+            packetCache.close();
+        }
+        if (nextSource != null) {
+            nextSource.cancel();
+        }
+        discardPredecodedFrames();
+
+        if (metrics != null) {
+            MetricsEndpoint.unregister(metrics);
+            metrics.unregisterMBean(mbeanName);
+        }
 
         if (grabber != null) {
             try {
@@ -379,15 +1643,33 @@ public class VideoServer {
             }
         }
 
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Lỗi khi đóng channel: " + e.getMessage());
+            }
         }
 
         if (controlSocket != null && !controlSocket.isClosed()) {
             controlSocket.close();
         }
 
+        if (fanout != null) {
+            try {
+                fanout.close();
+            } catch (IOException e) {
+                System.err.println("Lỗi khi đóng kênh unicast: " + e.getMessage());
+            }
+        }
+
+        if (headless) {
+            return;
+        }
         Platform.runLater(() -> {
+            if (previewTimer != null) {
+                previewTimer.stop();
+            }
             if (serverStage != null) {
                 serverStage.close();
             }
@@ -10,10 +10,13 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import java.io.File;
 import java.net.*;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 
 public class VideoStreamingApp extends Application {
-    private String selectedVideoPath = null;
+    // Chọn nhiều file thì phát lần lượt như playlist theo thứ tự chọn
+    private List<String> selectedVideoPaths = null;
 
     @Override
     public void start(Stage primaryStage) {
@@ -85,7 +88,7 @@ public class VideoStreamingApp extends Application {
         portField.setMaxWidth(200);
 
         // Nút chọn file
-        Button chooseFileBtn = new Button("Chọn video để phát");
+        Button chooseFileBtn = new Button("Chọn video để phát (nhiều file = playlist)");
         Label fileLabel = new Label("Chưa chọn file");
 
         chooseFileBtn.setOnAction(e -> {
@@ -95,25 +98,66 @@ public class VideoStreamingApp extends Application {
                     new FileChooser.ExtensionFilter("Video files", "*.mp4", "*.avi", "*.mkv");
             fileChooser.getExtensionFilters().add(extFilter);
 
-            File selectedFile = fileChooser.showOpenDialog(primaryStage);
-            if (selectedFile != null) {
-                selectedVideoPath = selectedFile.getAbsolutePath();
-                fileLabel.setText(selectedFile.getName());
+            List<File> selectedFiles = fileChooser.showOpenMultipleDialog(primaryStage);
+            if (selectedFiles != null && !selectedFiles.isEmpty()) {
+                selectedVideoPaths = new ArrayList<>();
+                for (File file : selectedFiles) {
+                    selectedVideoPaths.add(file.getAbsolutePath());
+                }
+                fileLabel.setText(selectedFiles.size() == 1 ? selectedFiles.get(0).getName()
+                        : "Playlist " + selectedFiles.size() + " file: " + selectedFiles.get(0).getName() + ", ...");
             }
         });
 
+        // Gửi thẳng H.264 của file thay vì giải mã và mã hóa lại JPEG
+        CheckBox passthroughBox = new CheckBox("Phát trực tiếp H.264 (không mã hóa lại)");
+
+        // Mã hóa thêm các lớp độ phân giải thấp hơn trên nhóm multicast riêng
+        CheckBox simulcastBox = new CheckBox("Simulcast (3 lớp chất lượng)");
+
+        // Gửi unicast tới từng client cho mạng chặn multicast/IGMP
+        CheckBox serverUnicastBox = new CheckBox("Unicast (mạng không hỗ trợ multicast)");
+
+        // Không giải mã/mã hóa khi không có ai xem
+        CheckBox idleBox = new CheckBox("Tạm ngừng khi không có người xem");
+
+        // Mã hóa sẵn một lần, các vòng lặp sau phát từ file cache
+        CheckBox loopCacheBox = new CheckBox("Cache gói khi phát lặp");
+
+        // Chỉ gửi các vùng thay đổi, hợp với slide và quay màn hình
+        CheckBox deltaBox = new CheckBox("Chỉ gửi vùng thay đổi (slide, quay màn hình)");
+        TextField refreshField = new TextField(String.valueOf(VideoServer.DEFAULT_DELTA_REFRESH_INTERVAL));
+        refreshField.setMaxWidth(200);
+        refreshField.disableProperty().bind(deltaBox.selectedProperty().not());
+
         // Nút bắt đầu server
         Button startButton = new Button("Bắt đầu phát");
         startButton.setOnAction(e -> {
-            if (selectedVideoPath == null) {
+            if (selectedVideoPaths == null) {
                 showAlert("Lỗi", "Vui lòng chọn file video");
                 return;
             }
 
+            int refreshInterval;
+            try {
+                refreshInterval = Integer.parseInt(refreshField.getText().trim());
+            } catch (NumberFormatException ex) {
+                showAlert("Lỗi", "Số frame giữa hai frame đầy đủ không hợp lệ");
+                return;
+            }
+
             try {
                 int port = Integer.parseInt(portField.getText());
                 String selectedIp = ipComboBox.getValue();
-                VideoServer server = new VideoServer(selectedVideoPath, selectedIp, port);
+                VideoServer server = new VideoServer(selectedVideoPaths, selectedIp, port, passthroughBox.isSelected(), false);
+                if (simulcastBox.isSelected()) {
+                    server.setLayers(StreamLayer.defaultLayers(port));
+                }
+                server.setUnicast(serverUnicastBox.isSelected());
+                server.setIdleWhenUnwatched(idleBox.isSelected());
+                server.setLoopCache(loopCacheBox.isSelected());
+                server.setDeltaMode(deltaBox.isSelected());
+                server.setDeltaRefreshInterval(refreshInterval);
                 server.streamVideo();
             } catch (NumberFormatException ex) {
                 showAlert("Lỗi", "Port không hợp lệ");
@@ -135,11 +179,19 @@ public class VideoStreamingApp extends Application {
                 portField,
                 chooseFileBtn,
                 fileLabel,
+                passthroughBox,
+                simulcastBox,
+                serverUnicastBox,
+                idleBox,
+                loopCacheBox,
+                deltaBox,
+                new Label("Frame đầy đủ sau mỗi (frame ô):"),
+                refreshField,
                 startButton,
                 backButton
         );
 
-        Scene scene = new Scene(root, 400, 450);
+        Scene scene = new Scene(root, 400, 740);
         primaryStage.setScene(scene);
     }
 
@@ -157,6 +209,8 @@ public class VideoStreamingApp extends Application {
         TextField portField = new TextField("4444");
         portField.setMaxWidth(200);
 
+        CheckBox unicastBox = new CheckBox("Nhận unicast (server bật chế độ unicast)");
+
         // Nút kết nối
         Button connectButton = new Button("Kết nối");
         connectButton.setOnAction(e -> {
@@ -179,6 +233,7 @@ public class VideoStreamingApp extends Application {
 
                 // Khởi động client
                 VideoClient client = new VideoClient(ip, port);
+                client.setUnicast(unicastBox.isSelected());
                 client.start(new Stage());
                 primaryStage.close();
 
@@ -200,11 +255,12 @@ public class VideoStreamingApp extends Application {
                 ipField,
                 new Label("Port:"),
                 portField,
+                unicastBox,
                 connectButton,
                 backButton
         );
 
-        Scene scene = new Scene(root, 400, 350);
+        Scene scene = new Scene(root, 400, 390);
         primaryStage.setScene(scene);
     }
 
@@ -1,5 +1,8 @@
 module VideoStream_LAN_NguyenQuynh {
     requires transitive java.desktop;
+    requires java.management;
+    requires jdk.management;
+    requires jdk.httpserver;
     requires javafx.controlsEmpty;
     requires javafx.controls;
     requires javafx.fxmlEmpty;
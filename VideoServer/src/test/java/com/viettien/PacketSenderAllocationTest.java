@@ -0,0 +1,45 @@
+package com.nguyenquynh;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// PacketSender.send ở trạng thái ổn định không được cấp phát heap: buffer lấy từ DirectBufferPool,
+// địa chỉ đích được cache và bộ xử lý gói được tạo một lần
+class PacketSenderAllocationTest {
+    private static final int WARMUP_SENDS = 20_000;
+    private static final int MEASURED_SENDS = 1_000;
+
+    @Test
+    void steadyStateSendDoesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        try (DatagramChannel receiver = DatagramChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             DatagramChannel channel = DatagramChannel.open()) {
+            PacketSender sender = new PacketSender(channel, (InetSocketAddress) receiver.getLocalAddress());
+            sender.setFecOverhead(20);
+            // Không giới hạn băng thông, không rải gói theo khoảng frame
+            PacketPacer pacer = new PacketPacer(0, 0);
+            byte[] frame = new byte[20 * StreamProtocol.PACKET_SIZE + 100];
+
+            // Khởi động: JIT biên dịch đường gửi, pool và bộ đệm frame gần nhất đạt kích thước ổn định
+            for (int i = 0; i < WARMUP_SENDS; i++) {
+                sender.send(frame, frame.length, i, StreamProtocol.PAYLOAD_JPEG, pacer);
+            }
+
+            long threadId = Thread.currentThread().threadId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_SENDS; i++) {
+                sender.send(frame, frame.length, WARMUP_SENDS + i, StreamProtocol.PAYLOAD_JPEG, pacer);
+            }
+            long after = threads.getThreadAllocatedBytes(threadId);
+            assertEquals(0, after - before, "Số byte cấp phát trong " + MEASURED_SENDS + " lần gửi");
+        }
+    }
+}